@@ -156,7 +156,7 @@ dependencies {
     implementation(libs.xerial.sqlite.jdbc)
     // firebase dependencies
     implementation(libs.javax.inject)
-    implementation(libs.okhttp)
+    api(libs.okhttp)
     implementation(libs.io.grpc.protobuf.lite)
     implementation(libs.io.grpc.stub)
     implementation(libs.androidx.collection)
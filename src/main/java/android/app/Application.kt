@@ -2,6 +2,7 @@ package android.app
 
 import android.content.ComponentCallbacks
 import android.content.Context
+import com.google.firebase.MemoryPressureMonitor
 
 class Application : Context() {
     var minSdkVersion: Int = 0
@@ -11,6 +12,11 @@ class Application : Context() {
     }
 
     fun registerComponentCallbacks(callbacks: ComponentCallbacks) {
+        MemoryPressureMonitor.register(callbacks)
+    }
+
+    fun unregisterComponentCallbacks(callbacks: ComponentCallbacks) {
+        MemoryPressureMonitor.unregister(callbacks)
     }
 
     interface ActivityLifecycleCallbacks
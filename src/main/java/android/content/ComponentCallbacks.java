@@ -1,4 +1,10 @@
 package android.content;
 
 public interface ComponentCallbacks {
+
+    /**
+     * Called when the heap is nearly exhausted, after the callbacks were asked to trim their
+     * memory with {@link ComponentCallbacks2#TRIM_MEMORY_RUNNING_CRITICAL}.
+     */
+    void onLowMemory();
 }
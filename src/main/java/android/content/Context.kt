@@ -50,24 +50,24 @@ open class Context {
                     "auto_init" -> return false
                     "firebase_messaging_auto_init_enabled" -> return false
                     "fire-fst" -> return false
-                    "fire-global" -> return !FirebasePlatform.firebasePlatform.retrieve(key).isNullOrEmpty()
+                    "fire-global" -> return !SharedPreferencesStore.retrieve(key).isNullOrEmpty()
                 }
                 throw IllegalArgumentException(key)
             }
 
             override fun getString(key: String, defaultValue: String?): String? {
                 return when {
-                    key == "last-used-date" -> FirebasePlatform.firebasePlatform.retrieve(key) ?: defaultValue
+                    key == "last-used-date" -> SharedPreferencesStore.retrieve(key) ?: defaultValue
                     key.contains("|T|") -> null
                     key.startsWith("com.google.firebase.auth.FIREBASE_USER") ->
-                        FirebasePlatform.firebasePlatform.retrieve(key) ?: defaultValue
+                        SharedPreferencesStore.retrieve(key) ?: defaultValue
                     else -> throw IllegalArgumentException(key)
                 }
             }
 
             override fun getLong(key: String?, defaultValue: Long): Long {
                 when (key) {
-                    "fire-global" -> return FirebasePlatform.firebasePlatform.retrieve(key)?.toLong() ?: defaultValue
+                    "fire-global" -> return SharedPreferencesStore.retrieve(key)?.toLong() ?: defaultValue
                 }
                 throw IllegalArgumentException(key)
             }
@@ -78,9 +78,12 @@ open class Context {
 
             override fun edit(): Editor {
                 return object : Editor {
+                    // Buffered until apply() or commit(), which make them visible all at once
+                    private val changes = LinkedHashMap<String, String?>()
+
                     override fun putLong(key: String?, value: Long): Editor {
                         when (key) {
-                            "fire-global" -> FirebasePlatform.firebasePlatform.store(key, value.toString())
+                            "fire-global" -> changes[key] = value.toString()
                             else -> throw IllegalArgumentException(key)
                         }
                         return this
@@ -88,9 +91,9 @@ open class Context {
 
                     override fun putString(key: String?, value: String?): Editor {
                         when (key) {
-                            "last-used-date" -> FirebasePlatform.firebasePlatform.store(key, value.toString())
+                            "last-used-date" -> changes[key] = value
                             else -> if (key?.startsWith("com.google.firebase.auth.FIREBASE_USER") == true) {
-                                FirebasePlatform.firebasePlatform.store(key, value.toString())
+                                changes[key] = value
                             } else {
                                 throw IllegalArgumentException(key)
                             }
@@ -99,13 +102,14 @@ open class Context {
                     }
 
                     override fun commit(): Boolean {
-                        // Don't need to commit as changes are committed in the put method
-                        return true
+                        return SharedPreferencesStore.awaitPersisted(SharedPreferencesStore.apply(takeChanges()))
                     }
 
                     override fun apply() {
-                        // Don't need to apply as changes are applied in the put method
+                        SharedPreferencesStore.apply(takeChanges())
                     }
+
+                    private fun takeChanges() = LinkedHashMap(changes).also { changes.clear() }
                 }
             }
         }
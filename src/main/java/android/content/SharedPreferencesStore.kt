@@ -0,0 +1,148 @@
+package android.content
+
+import android.os.AsyncTask
+import com.google.firebase.FirebasePlatform
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Write-behind store backing the [SharedPreferences] returned by [Context.getSharedPreferences].
+ *
+ * Edits are applied to an in-memory overlay that reads see straight away and are persisted by a
+ * single background writer, which hands everything applied since its last write to
+ * [FirebasePlatform.storeAll] in one batch. A null value removes the key. A batch that fails to
+ * persist stays in the overlay and is retried by the next write, or after a backoff if there is none.
+ */
+internal object SharedPreferencesStore {
+
+    private const val MIN_RETRY_MILLIS = 1000L
+    private const val MAX_RETRY_MILLIS = 60 * 1000L
+
+    private val lock = Any()
+
+    // Applied values that are not persisted yet, and the batch being persisted right now.
+    private var pending = LinkedHashMap<String, String?>()
+    private var writing: Map<String, String?> = emptyMap()
+
+    private var writeScheduled = false
+    private var appliedGeneration = 0L
+    private var persistedGeneration = 0L
+    private var shutdownHookAdded = false
+
+    // The oldest generation in pending, 0 if there is none.
+    private var pendingFrom = 0L
+
+    // The generations of the batch that failed last. A retried batch carries every generation that
+    // failed before it, so a success persists them all and one range covers all failures.
+    private var failedGenerations = LongRange.EMPTY
+    private var failures = 0
+
+    private val retryExecutor by lazy {
+        Executors.newSingleThreadScheduledExecutor {
+            Thread(it, "firebase-prefs-retry").apply { isDaemon = true }
+        }
+    }
+
+    fun retrieve(key: String): String? {
+        synchronized(lock) {
+            if (pending.containsKey(key)) return pending[key]
+            if (writing.containsKey(key)) return writing[key]
+        }
+        return FirebasePlatform.firebasePlatform.retrieve(key)
+    }
+
+    /**
+     * Applies the changes atomically and schedules them to be persisted, returning the generation
+     * to pass to [awaitPersisted].
+     */
+    fun apply(changes: Map<String, String?>): Long {
+        val generation: Long
+        val schedule: Boolean
+        synchronized(lock) {
+            pending.putAll(changes)
+            generation = ++appliedGeneration
+            if (pendingFrom == 0L) pendingFrom = generation
+            if (!shutdownHookAdded) {
+                shutdownHookAdded = true
+                Runtime.getRuntime().addShutdownHook(Thread(::write, "firebase-prefs-flush"))
+            }
+            schedule = !writeScheduled
+            writeScheduled = true
+        }
+        // Outside the lock, the executor may run the write on this thread
+        if (schedule) AsyncTask.THREAD_POOL_EXECUTOR.execute(::write)
+        return generation
+    }
+
+    /**
+     * Waits until the changes of the given generation are persisted, returning false if that failed.
+     */
+    fun awaitPersisted(generation: Long): Boolean {
+        synchronized(lock) {
+            var interrupted = false
+            while (persistedGeneration < generation) {
+                try {
+                    (lock as java.lang.Object).wait()
+                } catch (e: InterruptedException) {
+                    interrupted = true
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt()
+            return generation !in failedGenerations
+        }
+    }
+
+    // Persists everything applied so far, coalescing all the edits made since the last write.
+    private fun write() {
+        val batch: Map<String, String?>
+        val from: Long
+        val generation: Long
+        synchronized(lock) {
+            // Only one batch is written at a time, the running writer picks up anything new.
+            while (writing.isNotEmpty()) (lock as java.lang.Object).wait()
+            writeScheduled = false
+            if (pending.isEmpty()) {
+                // Nothing left to write, so every applied generation is already persisted
+                pendingFrom = 0L
+                persistedGeneration = maxOf(persistedGeneration, appliedGeneration)
+                (lock as java.lang.Object).notifyAll()
+                return
+            }
+            batch = pending
+            from = pendingFrom
+            generation = appliedGeneration
+            writing = batch
+            pending = LinkedHashMap()
+            pendingFrom = 0L
+        }
+        var failed = false
+        try {
+            FirebasePlatform.firebasePlatform.storeAll(batch)
+        } catch (e: RuntimeException) {
+            failed = true
+            FirebasePlatform.firebasePlatform.log("Failed to persist shared preferences: $e")
+        }
+        val retryDelay: Long
+        synchronized(lock) {
+            writing = emptyMap()
+            persistedGeneration = maxOf(persistedGeneration, generation)
+            if (failed) {
+                failedGenerations = from..generation
+                // Keep the failed batch readable and retry it with the next write, newer edits win
+                pending = LinkedHashMap(batch).apply { putAll(pending) }
+                pendingFrom = from
+                retryDelay = (MIN_RETRY_MILLIS shl failures.coerceAtMost(6)).coerceAtMost(MAX_RETRY_MILLIS)
+                failures++
+            } else {
+                failedGenerations = LongRange.EMPTY
+                failures = 0
+                retryDelay = 0L
+            }
+            (lock as java.lang.Object).notifyAll()
+        }
+        // Retry even if nothing else is applied, a write that runs first just finds nothing left to do
+        if (failed) {
+            retryExecutor.schedule({ AsyncTask.THREAD_POOL_EXECUTOR.execute(::write) }, retryDelay, TimeUnit.MILLISECONDS)
+        }
+    }
+}
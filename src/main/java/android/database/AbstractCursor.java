@@ -229,21 +229,34 @@ public abstract class AbstractCursor implements CrossProcessCursor {
         return mPos;
     }
 
+    /**
+     * Returns true if the cursor has a row at the given position.  The default
+     * implementation compares the position with {@link #getCount()}.  Cursors that
+     * only count their rows on demand override this so that moving through the
+     * results does not require the total row count.
+     *
+     * @param position the zero-based position, must not be negative
+     * @return true if the row exists, false if the position is past the end
+     * @hide
+     */
+    protected boolean hasRow(int position) {
+        return position < getCount();
+    }
+
     @Override
     public final boolean moveToPosition(int position) {
-        // Make sure position isn't past the end of the cursor
-        final int count = getCount();
-        if (position >= count) {
-            mPos = count;
-            return false;
-        }
-
         // Make sure position isn't before the beginning of the cursor
         if (position < 0) {
             mPos = -1;
             return false;
         }
 
+        // Make sure position isn't past the end of the cursor
+        if (!hasRow(position)) {
+            mPos = getCount();
+            return false;
+        }
+
         // Check for no-op moves, and skip the rest of the work for them
         if (position == mPos) {
             return true;
@@ -520,7 +533,7 @@ public abstract class AbstractCursor implements CrossProcessCursor {
      * @throws CursorIndexOutOfBoundsException
      */
     protected void checkPosition() {
-        if (-1 == mPos || getCount() == mPos) {
+        if (-1 == mPos || !hasRow(mPos)) {
             throw new CursorIndexOutOfBoundsException(mPos, getCount());
         }
     }
@@ -45,6 +45,74 @@ public abstract class AbstractWindowedCursor extends AbstractCursor {
         return mWindow.getBlob(mPos, columnIndex);
     }
 
+    /**
+     * Returns the value of the requested column as a read-only {@link java.nio.ByteBuffer}
+     * over the cursor window, without copying it.  The buffer is only valid until the
+     * cursor moves to a row outside of the current window.
+     *
+     * @see CursorWindow#getBlobBuffer(int, int)
+     * @hide
+     */
+    public java.nio.ByteBuffer getBlobBuffer(int columnIndex) {
+        checkPosition();
+        return mWindow.getBlobBuffer(mPos, columnIndex);
+    }
+
+    /**
+     * Returns the value of the requested column as an {@link java.io.InputStream} over the
+     * cursor window, without copying it into an array, or null if the value is null.  The
+     * stream is only valid until the cursor moves to a row outside of the current window.
+     *
+     * @see #getBlobBuffer(int)
+     * @see android.database.sqlite.SQLiteStatement#simpleQueryForBlobStream()
+     * @hide
+     */
+    public java.io.InputStream getBlobStream(int columnIndex) {
+        final java.nio.ByteBuffer buffer = getBlobBuffer(columnIndex);
+        return buffer != null ? new ByteBufferInputStream(buffer) : null;
+    }
+
+    private static final class ByteBufferInputStream extends java.io.InputStream {
+        private final java.nio.ByteBuffer mBuffer;
+
+        ByteBufferInputStream(java.nio.ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return mBuffer.hasRemaining() ? mBuffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (len == 0) {
+                return 0;
+            }
+            if (!mBuffer.hasRemaining()) {
+                return -1;
+            }
+            final int n = Math.min(len, mBuffer.remaining());
+            mBuffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            final int skipped = (int) Math.max(0, Math.min(n, mBuffer.remaining()));
+            mBuffer.position(mBuffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return mBuffer.remaining();
+        }
+    }
+
     @Override
     public String getString(int columnIndex) {
         checkPosition();
@@ -20,13 +20,13 @@ import android.annotation.BytesLong;
 import android.annotation.IntRange;
 import android.database.sqlite.SQLiteClosable;
 import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteLeakTracker;
 import android.os.Parcel;
 import com.google.common.base.Preconditions;
-import org.sqlite.core.Codes;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -38,20 +38,57 @@ import static java.nio.charset.StandardCharsets.UTF_8;
  * receives a read-only view of the cursor window.  Typically the cursor window
  * will be allocated by the producer, filled with data, and then sent to the
  * consumer for reading.
+ * </p><p>
+ * The window is stored by column: every column has a type array and a primitive
+ * array for its integer and floating point values, so numeric fields are neither
+ * boxed when put nor when read.  String and blob fields are copied into a single
+ * direct {@link ByteBuffer} arena.  Each field is accounted for against the window
+ * size, so {@link #allocRow()} and the {@code putX} methods return false once the
+ * window is full.
  * </p>
  */
 public class CursorWindow extends SQLiteClosable {
 
-    private final List<Row> rows;
-    private int numColumns;
-
     private static final String STATS_TAG = "CursorWindowStats";
 
+    // The bytes accounted for each field: its type plus its 64-bit value or arena reference.
+    private static final int FIELD_SIZE = 9;
+
+    private static final int INITIAL_ROW_CAPACITY = 64;
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+    // Released buffers are kept for reuse by the next window, a window is created for every query.
+    private static final int MAX_POOLED_BUFFERS = 4;
+    private static final ArrayList<ByteBuffer> sBufferPool = new ArrayList<ByteBuffer>();
+
     // This static member will be evaluated when first used.
     private static int sCursorWindowSize = -1;
 
     private int mStartPos;
     private final String mName;
+    private final int mWindowSizeBytes;
+
+    private int mNumRows;
+    private int mNumColumns;
+    private int mRowCapacity;
+
+    // Column storage indexed by [column][row].  For strings and blobs mLongs holds the
+    // arena offset in the high and the size in the low 32 bits.  mDoubles is only
+    // allocated for columns that contain a floating point value.
+    private byte[][] mTypes;
+    private long[][] mLongs;
+    private double[][] mDoubles;
+
+    // The string and blob arena.
+    private ByteBuffer mData;
+    private int mDataSize;
+    private int mLastRowDataSize;
+
+    // Reused to decode strings out of the arena.
+    private byte[] mScratch;
+
+    // Only set while cursor window leak tracking is enabled.
+    private final SQLiteLeakTracker.Handle mLeakHandle;
 
     /**
      * Creates a new empty cursor window and gives it a name.
@@ -87,7 +124,10 @@ public class CursorWindow extends SQLiteClosable {
         }
         mStartPos = 0;
         mName = name != null && !name.isEmpty() ? name : "<unnamed>";
-        this.rows = new ArrayList<Row>();
+        mWindowSizeBytes = (int) Math.min(windowSizeBytes, Integer.MAX_VALUE);
+        mLeakHandle = SQLiteLeakTracker.isCursorWindowTrackingEnabled()
+                ? SQLiteLeakTracker.track(this, SQLiteLeakTracker.CURSOR_WINDOW, "close", null)
+                : null;
     }
 
     /**
@@ -118,17 +158,19 @@ public class CursorWindow extends SQLiteClosable {
 //        mCloseGuard.open("CursorWindow.close");
 //    }
 
-    @Override
-    protected void finalize() throws Throwable {
-        try {
-            dispose();
-        } finally {
-            super.finalize();
-        }
-    }
-
     private void dispose() {
-        rows.clear();
+        if (mLeakHandle != null) {
+            mLeakHandle.close();
+        }
+        clear();
+        mTypes = null;
+        mLongs = null;
+        mDoubles = null;
+        mRowCapacity = 0;
+        if (mData != null) {
+            releaseBuffer(mData);
+            mData = null;
+        }
     }
 
     /**
@@ -148,7 +190,11 @@ public class CursorWindow extends SQLiteClosable {
      * </p>
      */
     public void clear() {
-        rows.clear();
+        mStartPos = 0;
+        mNumRows = 0;
+        mNumColumns = 0;
+        mDataSize = 0;
+        mLastRowDataSize = 0;
     }
 
     /**
@@ -183,7 +229,7 @@ public class CursorWindow extends SQLiteClosable {
      * @return The number of rows in this cursor window.
      */
     public @IntRange(from = 0) int getNumRows() {
-        return rows.size();
+        return mNumRows;
     }
 
     /**
@@ -198,7 +244,17 @@ public class CursorWindow extends SQLiteClosable {
      * @return True if successful.
      */
     public boolean setNumColumns(@IntRange(from = 0) int columnNum) {
-        this.numColumns = columnNum;
+        if (mNumRows > 0 && columnNum != mNumColumns) {
+            return false;
+        }
+        if (mTypes == null || mTypes.length != columnNum) {
+            // Keep the arrays of a window that is refilled with the same shape.
+            mTypes = new byte[columnNum][];
+            mLongs = new long[columnNum][];
+            mDoubles = new double[columnNum][];
+            mRowCapacity = 0;
+        }
+        mNumColumns = columnNum;
         return true;
     }
 
@@ -209,7 +265,18 @@ public class CursorWindow extends SQLiteClosable {
      */
 
     public boolean allocRow() {
-        rows.add(new Row(numColumns));
+        if (usedBytes() + (long) mNumColumns * FIELD_SIZE > mWindowSizeBytes) {
+            return false;
+        }
+        if (mNumRows == mRowCapacity) {
+            growRows();
+        }
+        // The arrays are reused after clear(), reset the new row to FIELD_TYPE_NULL.
+        for (int column = 0; column < mNumColumns; column++) {
+            mTypes[column][mNumRows] = Cursor.FIELD_TYPE_NULL;
+        }
+        mLastRowDataSize = mDataSize;
+        mNumRows++;
         return true;
     }
 
@@ -217,7 +284,10 @@ public class CursorWindow extends SQLiteClosable {
      * Frees the last row in this cursor window.
      */
     public void freeLastRow(){
-        rows.remove(rows.size()-1);
+        if (mNumRows > 0) {
+            mNumRows--;
+            mDataSize = mLastRowDataSize;
+        }
     }
 
     /**
@@ -294,16 +364,148 @@ public class CursorWindow extends SQLiteClosable {
         return type == Cursor.FIELD_TYPE_STRING || type == Cursor.FIELD_TYPE_NULL;
     }
 
-    private Value value(int rowN, int colN) {
-        Row row = rows.get(rowN);
-        if (row == null) {
-            throw new IllegalArgumentException("Bad row number: " + rowN + ", count: " + rows.size());
+    private long usedBytes() {
+        return (long) mNumRows * mNumColumns * FIELD_SIZE + mDataSize;
+    }
+
+    private void growRows() {
+        final int capacity = Math.max(INITIAL_ROW_CAPACITY, mRowCapacity * 2);
+        for (int column = 0; column < mNumColumns; column++) {
+            mTypes[column] = mTypes[column] == null
+                    ? new byte[capacity] : Arrays.copyOf(mTypes[column], capacity);
+            mLongs[column] = mLongs[column] == null
+                    ? new long[capacity] : Arrays.copyOf(mLongs[column], capacity);
+            if (mDoubles[column] != null) {
+                mDoubles[column] = Arrays.copyOf(mDoubles[column], capacity);
+            }
+        }
+        mRowCapacity = capacity;
+    }
+
+    private int checkField(int row, int column) {
+        final int rowN = row - mStartPos;
+        if (rowN < 0 || rowN >= mNumRows || column < 0 || column >= mNumColumns) {
+            throw new IllegalStateException("Couldn't read row " + row + ", column " + column
+                    + " from CursorWindow.  Make sure the Cursor is initialized correctly before"
+                    + " accessing data from it.");
+        }
+        return rowN;
+    }
+
+    private int rowForPut(int row, int column) {
+        final int rowN = row - mStartPos;
+        if (rowN < 0 || rowN >= mNumRows || column < 0 || column >= mNumColumns) {
+            return -1;
+        }
+        return rowN;
+    }
+
+    private byte[] fieldBytes(long ref) {
+        final byte[] bytes = new byte[(int) ref];
+        mData.get((int) (ref >>> 32), bytes);
+        return bytes;
+    }
+
+    private String fieldString(long ref) {
+        // Strings are stored with a trailing zero-byte, exclude it when decoding.
+        final int size = (int) ref - 1;
+        if (mScratch == null || mScratch.length < size) {
+            mScratch = new byte[Math.max(size, 64)];
+        }
+        mData.get((int) (ref >>> 32), mScratch, 0, size);
+        return new String(mScratch, 0, size, UTF_8);
+    }
+
+    /**
+     * Reserves {@code size} bytes of the arena for the field and records its type,
+     * returning the arena offset to copy the value to or -1 if it does not fit.
+     */
+    private int allocField(int row, int column, int size, byte type) {
+        final int rowN = rowForPut(row, column);
+        if (rowN < 0 || !ensureArena(size)) {
+            return -1;
+        }
+        final int offset = mDataSize;
+        mDataSize += size;
+        mTypes[column][rowN] = type;
+        mLongs[column][rowN] = (long) offset << 32 | size;
+        return offset;
+    }
+
+    private boolean putBytes(byte[] value, int extraBytes, byte type, int row, int column) {
+        final int offset = allocField(row, column, value.length + extraBytes, type);
+        if (offset < 0) {
+            return false;
+        }
+        mData.put(offset, value);
+        if (extraBytes > 0) {
+            mData.put(offset + value.length, (byte) 0);
         }
-        return row.get(colN);
+        return true;
     }
 
-    private boolean putValue(Value value, int rowN, int colN) {
-        return rows.get(rowN).set(colN, value);
+    private boolean putBytes(ByteBuffer value, int extraBytes, byte type, int row, int column) {
+        final int length = value.remaining();
+        final int offset = allocField(row, column, length + extraBytes, type);
+        if (offset < 0) {
+            return false;
+        }
+        mData.put(offset, value, value.position(), length);
+        if (extraBytes > 0) {
+            mData.put(offset + length, (byte) 0);
+        }
+        return true;
+    }
+
+    /**
+     * Makes sure the arena can take another {@code size} bytes without exceeding the
+     * window size, growing the buffer if needed.
+     */
+    private boolean ensureArena(int size) {
+        if (usedBytes() + size > mWindowSizeBytes) {
+            return false;
+        }
+        final long required = (long) mDataSize + size;
+        if (mData != null && required <= mData.capacity()) {
+            return true;
+        }
+        final int capacity = (int) Math.min(mWindowSizeBytes, Math.max(required,
+                Math.max(INITIAL_BUFFER_SIZE, mData == null ? 0 : (long) mData.capacity() * 2)));
+        final ByteBuffer newData = acquireBuffer(capacity);
+        if (mData != null) {
+            newData.put(0, mData, 0, mDataSize);
+            releaseBuffer(mData);
+        }
+        mData = newData;
+        return true;
+    }
+
+    private static ByteBuffer acquireBuffer(int capacity) {
+        synchronized (sBufferPool) {
+            ByteBuffer best = null;
+            for (ByteBuffer buffer : sBufferPool) {
+                if (buffer.capacity() >= capacity
+                        && (best == null || buffer.capacity() < best.capacity())) {
+                    best = buffer;
+                }
+            }
+            if (best != null) {
+                sBufferPool.remove(best);
+                return best;
+            }
+        }
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    private static void releaseBuffer(ByteBuffer buffer) {
+        if (buffer.capacity() > getCursorWindowSize()) {
+            return;
+        }
+        synchronized (sBufferPool) {
+            if (sBufferPool.size() < MAX_POOLED_BUFFERS) {
+                sBufferPool.add(buffer);
+            }
+        }
     }
 
     /**
@@ -315,7 +517,8 @@ public class CursorWindow extends SQLiteClosable {
      */
     public @Cursor.FieldType int getType(@IntRange(from = 0) int row,
                                          @IntRange(from = 0) int column) {
-        return value(row - mStartPos, column).type;
+        final int rowN = checkField(row, column);
+        return mTypes[column][rowN];
     }
 
     /**
@@ -340,23 +543,50 @@ public class CursorWindow extends SQLiteClosable {
      * @return The value of the field as a byte array.
      */
     public byte[] getBlob(@IntRange(from = 0) int row, @IntRange(from = 0) int column) {
-        Value value = value(row - mStartPos, column);
+        final int rowN = checkField(row, column);
 
-        switch (value.type) {
+        switch (mTypes[column][rowN]) {
             case Cursor.FIELD_TYPE_NULL:
                 return null;
             case Cursor.FIELD_TYPE_BLOB:
-                // This matches Android's behavior, which does not match the SQLite spec
-                byte[] blob = (byte[])value.value;
-                return blob == null ? new byte[]{} : blob;
             case Cursor.FIELD_TYPE_STRING:
-                // Matches the Android behavior to contain a zero-byte at the end
-                byte[] stringBytes = ((String) value.value).getBytes(UTF_8);
-                return Arrays.copyOf(stringBytes, stringBytes.length + 1);
+                // Matches the Android behavior for strings to contain a zero-byte at the end
+                return fieldBytes(mLongs[column][rowN]);
             default:
                 throw new android.database.sqlite.SQLiteException(
                         "Getting blob when column is non-blob. Row " + row + ", col " + column);
-        }    }
+        }
+    }
+
+    /**
+     * Gets the value of the field at the specified row and column index as a read-only
+     * {@link ByteBuffer} over the window's own storage, without copying it.
+     * <p>
+     * The result follows the same rules as {@link #getBlob(int, int)}.  The buffer is
+     * only valid until the window is cleared, refilled or closed, so it must be consumed
+     * before the cursor moves to a row outside of the window.
+     * </p>
+     *
+     * @param row The zero-based row index.
+     * @param column The zero-based column index.
+     * @return The value of the field as a read-only buffer, or null if the field is null.
+     * @hide
+     */
+    public ByteBuffer getBlobBuffer(@IntRange(from = 0) int row, @IntRange(from = 0) int column) {
+        final int rowN = checkField(row, column);
+
+        switch (mTypes[column][rowN]) {
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            case Cursor.FIELD_TYPE_BLOB:
+            case Cursor.FIELD_TYPE_STRING:
+                final long ref = mLongs[column][rowN];
+                return mData.slice((int) (ref >>> 32), (int) ref).asReadOnlyBuffer();
+            default:
+                throw new android.database.sqlite.SQLiteException(
+                        "Getting blob when column is non-blob. Row " + row + ", col " + column);
+        }
+    }
 
     /**
      * Gets the value of the field at the specified row and column index as a string.
@@ -385,13 +615,20 @@ public class CursorWindow extends SQLiteClosable {
      * @return The value of the field as a string.
      */
     public String getString(@IntRange(from = 0) int row, @IntRange(from = 0) int column) {
-        Value val = value(row - mStartPos, column);
-        if (val.type == Cursor.FIELD_TYPE_BLOB) {
-            throw new android.database.sqlite.SQLiteException(
-                    "Getting string when column is blob. Row " + row + ", col " + column);
+        final int rowN = checkField(row, column);
+        switch (mTypes[column][rowN]) {
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            case Cursor.FIELD_TYPE_STRING:
+                return fieldString(mLongs[column][rowN]);
+            case Cursor.FIELD_TYPE_INTEGER:
+                return String.valueOf(mLongs[column][rowN]);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return String.valueOf(mDoubles[column][rowN]);
+            default:
+                throw new android.database.sqlite.SQLiteException(
+                        "Getting string when column is blob. Row " + row + ", col " + column);
         }
-        Object value = val.value;
-        return value == null ? null : String.valueOf(value);
     }
 
     /**
@@ -437,26 +674,11 @@ public class CursorWindow extends SQLiteClosable {
 //        }
 //    }
 
-    private Number getNumber(int row, int column) {
-        Value value = value(row, column);
-        switch (value.type) {
-            case Cursor.FIELD_TYPE_NULL:
-            case Codes.SQLITE_NULL:
-                return 0;
-            case Cursor.FIELD_TYPE_INTEGER:
-            case Cursor.FIELD_TYPE_FLOAT:
-                return (Number) value.value;
-            case Cursor.FIELD_TYPE_STRING: {
-                try {
-                    return Double.parseDouble((String) value.value);
-                } catch (NumberFormatException e) {
-                    return 0;
-                }
-            }
-            case Cursor.FIELD_TYPE_BLOB:
-                throw new android.database.sqlite.SQLiteException("could not convert "+value);
-            default:
-                throw new android.database.sqlite.SQLiteException("unknown type: "+value.type);
+    private static double parseDouble(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return 0;
         }
     }
 
@@ -483,7 +705,23 @@ public class CursorWindow extends SQLiteClosable {
      * @return The value of the field as a <code>long</code>.
      */
     public long getLong(@IntRange(from = 0) int row, @IntRange(from = 0) int column) {
-        return getNumber(row - mStartPos, column).longValue();
+        final int rowN = checkField(row, column);
+        final int type = mTypes[column][rowN];
+        switch (type) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return mLongs[column][rowN];
+            case Cursor.FIELD_TYPE_NULL:
+                return 0L;
+            case Cursor.FIELD_TYPE_FLOAT:
+                return (long) mDoubles[column][rowN];
+            case Cursor.FIELD_TYPE_STRING:
+                return (long) parseDouble(fieldString(mLongs[column][rowN]));
+            case Cursor.FIELD_TYPE_BLOB:
+                throw new android.database.sqlite.SQLiteException("could not convert blob to long."
+                        + " Row " + row + ", col " + column);
+            default:
+                throw new android.database.sqlite.SQLiteException("unknown type: " + type);
+        }
     }
 
     /**
@@ -510,7 +748,23 @@ public class CursorWindow extends SQLiteClosable {
      * @return The value of the field as a <code>double</code>.
      */
     public double getDouble(@IntRange(from = 0) int row, @IntRange(from = 0) int column) {
-        return getNumber(row - mStartPos, column).doubleValue();
+        final int rowN = checkField(row, column);
+        final int type = mTypes[column][rowN];
+        switch (type) {
+            case Cursor.FIELD_TYPE_FLOAT:
+                return mDoubles[column][rowN];
+            case Cursor.FIELD_TYPE_NULL:
+                return 0.0;
+            case Cursor.FIELD_TYPE_INTEGER:
+                return (double) mLongs[column][rowN];
+            case Cursor.FIELD_TYPE_STRING:
+                return parseDouble(fieldString(mLongs[column][rowN]));
+            case Cursor.FIELD_TYPE_BLOB:
+                throw new android.database.sqlite.SQLiteException("could not convert blob to double."
+                        + " Row " + row + ", col " + column);
+            default:
+                throw new android.database.sqlite.SQLiteException("unknown type: " + type);
+        }
     }
 
     /**
@@ -573,7 +827,40 @@ public class CursorWindow extends SQLiteClosable {
                            @IntRange(from = 0) int row, @IntRange(from = 0) int column) {
         // Real Android will crash in native code if putString is called with a null value.
         Preconditions.checkNotNull(value);
-        return putValue(new Value(value, Cursor.FIELD_TYPE_BLOB), row, column);
+        return putBytes(value, 0, (byte) Cursor.FIELD_TYPE_BLOB, row, column);
+    }
+
+    /**
+     * Copies the remaining bytes of a buffer into the field at the specified row and
+     * column index as a blob.  The position of the buffer is not changed.
+     *
+     * @param value The value to store.
+     * @param row The zero-based row index.
+     * @param column The zero-based column index.
+     * @return True if successful.
+     * @hide
+     */
+    public boolean putBlob(ByteBuffer value,
+                           @IntRange(from = 0) int row, @IntRange(from = 0) int column) {
+        Preconditions.checkNotNull(value);
+        return putBytes(value, 0, (byte) Cursor.FIELD_TYPE_BLOB, row, column);
+    }
+
+    /**
+     * Copies the remaining bytes of a buffer, which must hold UTF-8 encoded text, into
+     * the field at the specified row and column index as a string.  This avoids decoding
+     * and re-encoding text that is already UTF-8.  The position of the buffer is not changed.
+     *
+     * @param value The UTF-8 encoded value to store.
+     * @param row The zero-based row index.
+     * @param column The zero-based column index.
+     * @return True if successful.
+     * @hide
+     */
+    public boolean putStringUtf8(ByteBuffer value,
+                                 @IntRange(from = 0) int row, @IntRange(from = 0) int column) {
+        Preconditions.checkNotNull(value);
+        return putBytes(value, 1, (byte) Cursor.FIELD_TYPE_STRING, row, column);
     }
 
     /**
@@ -588,7 +875,7 @@ public class CursorWindow extends SQLiteClosable {
                              @IntRange(from = 0) int row, @IntRange(from = 0) int column) {
         // Real Android will crash in native code if putString is called with a null value.
         Preconditions.checkNotNull(value);
-        return putValue(new Value(value, Cursor.FIELD_TYPE_STRING), row, column);
+        return putBytes(value.getBytes(UTF_8), 1, (byte) Cursor.FIELD_TYPE_STRING, row, column);
     }
 
     /**
@@ -601,7 +888,13 @@ public class CursorWindow extends SQLiteClosable {
      */
     public boolean putLong(long value,
                            @IntRange(from = 0) int row, @IntRange(from = 0) int column) {
-        return putValue(new Value(value, Cursor.FIELD_TYPE_INTEGER), row, column);
+        final int rowN = rowForPut(row, column);
+        if (rowN < 0) {
+            return false;
+        }
+        mTypes[column][rowN] = Cursor.FIELD_TYPE_INTEGER;
+        mLongs[column][rowN] = value;
+        return true;
     }
 
     /**
@@ -615,7 +908,16 @@ public class CursorWindow extends SQLiteClosable {
      */
     public boolean putDouble(double value,
                              @IntRange(from = 0) int row, @IntRange(from = 0) int column) {
-        return putValue(new Value(value, Cursor.FIELD_TYPE_FLOAT), row, column);
+        final int rowN = rowForPut(row, column);
+        if (rowN < 0) {
+            return false;
+        }
+        if (mDoubles[column] == null) {
+            mDoubles[column] = new double[mRowCapacity];
+        }
+        mTypes[column][rowN] = Cursor.FIELD_TYPE_FLOAT;
+        mDoubles[column][rowN] = value;
+        return true;
     }
 
     /**
@@ -626,7 +928,12 @@ public class CursorWindow extends SQLiteClosable {
      * @return True if successful.
      */
     public boolean putNull(@IntRange(from = 0) int row, @IntRange(from = 0) int column) {
-        return putValue(new Value(null, Cursor.FIELD_TYPE_NULL), row, column);
+        final int rowN = rowForPut(row, column);
+        if (rowN < 0) {
+            return false;
+        }
+        mTypes[column][rowN] = Cursor.FIELD_TYPE_NULL;
+        return true;
     }
 
 //    public static final @android.annotation.NonNull Parcelable.Creator<CursorWindow> CREATOR
@@ -680,34 +987,4 @@ public class CursorWindow extends SQLiteClosable {
     public String toString() {
         return getName();
     }
-
-    private static class Row {
-        private final List<Value> values;
-
-        public Row(int length) {
-            values = new ArrayList<Value>(length);
-            for (int i=0; i<length; i++) {
-                values.add(new Value(null, Cursor.FIELD_TYPE_NULL));
-            }
-        }
-
-        public Value get(int n) {
-            return values.get(n);
-        }
-
-        public boolean set(int colN, Value value) {
-            values.set(colN, value);
-            return true;
-        }
-    }
-
-    private static class Value {
-        private final Object value;
-        private final int type;
-
-        public Value(final Object value, final int type) {
-            this.value = value;
-            this.type = type;
-        }
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,209 @@
+package android.database.sqlite;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Streams the blob value of a query in chunks, so a large value never has to be held
+ * on the heap at once.
+ * <p>
+ * Each chunk is read by a statement of its own that takes a {@code substr()} of the value,
+ * so the query should be cheap to repeat, such as a lookup by key.  Read the stream inside a
+ * transaction for the chunks to come from the same version of the value, otherwise a value
+ * that changes while it is read may be mixed up, or fail with an {@link IOException} if it
+ * gets shorter.  Text values are streamed as their UTF-8 bytes.
+ * </p><p>
+ * This class is not thread-safe.
+ * </p>
+ */
+public final class SQLiteBlobInputStream extends InputStream implements ReadableByteChannel {
+    /**
+     * The number of bytes read by each statement unless another chunk size is given.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private final SQLiteDatabase mDatabase;
+    private final String mChunkSql;
+    private final Object[] mChunkBindArgs;
+    private final int mConnectionFlags;
+    private final int mChunkSize;
+    private final long mLength;
+
+    // The position in the value of the end of the current chunk.
+    private long mPosition;
+    private byte[] mChunk;
+    private int mChunkOffset;
+    private boolean mClosed;
+
+    private SQLiteBlobInputStream(SQLiteDatabase db, String value, Object[] bindArgs,
+            int connectionFlags, int chunkSize, long length) {
+        mDatabase = db;
+        mChunkSql = "SELECT substr(" + value + ", ?, ?)";
+        final int count = bindArgs != null ? bindArgs.length : 0;
+        mChunkBindArgs = bindArgs != null
+                ? Arrays.copyOf(bindArgs, count + 2) : new Object[2];
+        mConnectionFlags = connectionFlags;
+        mChunkSize = chunkSize;
+        mLength = length;
+    }
+
+    /**
+     * Runs the query for the length of its value, returning a stream over the value or null
+     * if it is null.  The database must have a reference acquired by the caller.
+     */
+    static SQLiteBlobInputStream open(SQLiteDatabase db, String sql, Object[] bindArgs,
+            int connectionFlags, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive.");
+        }
+        final String value = "CAST((" + trimStatement(sql) + ") AS BLOB)";
+        final long length = db.getThreadSession().executeForLong(
+                "SELECT ifnull(length(" + value + "), -1)", bindArgs, connectionFlags, null);
+        return length >= 0
+                ? new SQLiteBlobInputStream(db, value, bindArgs, connectionFlags, chunkSize, length)
+                : null;
+    }
+
+    // Drops the trailing semicolon of the query so it can be used as a subquery.
+    private static String trimStatement(String sql) {
+        int end = sql.length();
+        while (end > 0 && (sql.charAt(end - 1) == ';'
+                || Character.isWhitespace(sql.charAt(end - 1)))) {
+            end--;
+        }
+        return sql.substring(0, end);
+    }
+
+    /**
+     * Returns the length of the value in bytes.
+     */
+    public long length() {
+        return mLength;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return mChunk[mChunkOffset++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        int count = 0;
+        while (count < len && fill()) {
+            final int n = Math.min(len - count, mChunk.length - mChunkOffset);
+            System.arraycopy(mChunk, mChunkOffset, b, off + count, n);
+            mChunkOffset += n;
+            count += n;
+        }
+        return count > 0 ? count : -1;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        int count = 0;
+        while (dst.hasRemaining() && fill()) {
+            final int n = Math.min(dst.remaining(), mChunk.length - mChunkOffset);
+            dst.put(mChunk, mChunkOffset, n);
+            mChunkOffset += n;
+            count += n;
+        }
+        return count > 0 ? count : -1;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        throwIfClosed();
+        if (n <= 0) {
+            return 0;
+        }
+        final int buffered = mChunk != null ? mChunk.length - mChunkOffset : 0;
+        if (n <= buffered) {
+            mChunkOffset += (int) n;
+            return n;
+        }
+        // Skip past the current chunk without reading the bytes in between.
+        final long skipped = buffered + Math.min(n - buffered, mLength - mPosition);
+        mPosition += skipped - buffered;
+        mChunk = null;
+        mChunkOffset = 0;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        throwIfClosed();
+        return mChunk != null ? mChunk.length - mChunkOffset : 0;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !mClosed;
+    }
+
+    @Override
+    public void close() {
+        mClosed = true;
+        mChunk = null;
+    }
+
+    // Reads the next chunk if the current one is consumed, returning false at the end.
+    private boolean fill() throws IOException {
+        throwIfClosed();
+        if (mChunk != null && mChunkOffset < mChunk.length) {
+            return true;
+        }
+        mChunk = null;
+        mChunkOffset = 0;
+        if (mPosition >= mLength) {
+            return false;
+        }
+
+        final int expected = (int) Math.min(mChunkSize, mLength - mPosition);
+        final int count = mChunkBindArgs.length;
+        mChunkBindArgs[count - 2] = mPosition + 1; // substr() counts from 1
+        mChunkBindArgs[count - 1] = expected;
+        final byte[] chunk;
+        mDatabase.acquireReference();
+        try {
+            chunk = mDatabase.getThreadSession().executeForBlob(
+                    mChunkSql, mChunkBindArgs, mConnectionFlags, null);
+        } catch (SQLiteDatabaseCorruptException ex) {
+            mDatabase.onCorruption();
+            throw new IOException(ex);
+        } catch (SQLiteException ex) {
+            throw new IOException(ex);
+        } finally {
+            mDatabase.releaseReference();
+        }
+        if (chunk == null || chunk.length != expected) {
+            throw new IOException("The blob changed while it was streamed: expected "
+                    + expected + " bytes at offset " + mPosition + " but got "
+                    + (chunk != null ? chunk.length : 0));
+        }
+        mPosition += chunk.length;
+        mChunk = chunk;
+        return true;
+    }
+
+    private void throwIfClosed() throws IOException {
+        if (mClosed) {
+            throw new ClosedChannelException();
+        }
+    }
+}
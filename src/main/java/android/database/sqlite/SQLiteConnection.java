@@ -20,6 +20,7 @@
 
 package android.database.sqlite;
 
+import android.content.ComponentCallbacks2;
 import android.database.Cursor;
 import android.database.CursorWindow;
 import android.database.DatabaseUtils;
@@ -31,13 +32,17 @@ import android.os.SystemClock;
 import android.util.Log;
 import android.util.LruCache;
 import android.util.Printer;
+import com.google.firebase.StorageProfile;
 import org.sqlite.core.NativeDB;
 import org.sqlite.core.NativeKt;
 
+import java.lang.ref.WeakReference;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 /**
  * Represents a SQLite database connection.
@@ -94,7 +99,12 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
     private static final String[] EMPTY_STRING_ARRAY = new String[0];
     private static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
 
-    private final CloseGuard mCloseGuard = CloseGuard.get();
+    // Reads the row ID of each row of an insert batch, since sqlite-jdbc doesn't expose it.
+    private static final String LAST_INSERT_ROWID_SQL = "SELECT last_insert_rowid()";
+
+    private static final Pattern EXCLUSIVE_LOCKING_MODE_PATTERN = Pattern.compile(
+            "^\\s*PRAGMA\\s+(?:\\w+\\.)?locking_mode\\s*=\\s*['\"]?exclusive",
+            Pattern.CASE_INSENSITIVE);
 
     private final SQLiteConnectionPool mPool;
     private final SQLiteDatabaseConfiguration mConfiguration;
@@ -104,14 +114,30 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
     private final PreparedStatementCache mPreparedStatementCache;
     private PreparedStatement mPreparedStatementPool;
 
+    // Closes the native database if the connection is leaked.
+    private final NativeReleaser mNativeReleaser;
+    private final SQLiteLeakTracker.Handle mLeakHandle;
+
     // The recent operations log.
-    private final OperationLog mRecentOperations = new OperationLog();
+    private final OperationLog mRecentOperations;
+
+    // Statements taking at least this long go in the slow query log, negative to disable it.
+    private final long mSlowQueryThresholdMillis;
+
+    // The page size, caching and temporary storage of the database.
+    private final StorageProfile mStorageProfile;
 
     // The native SQLiteConnection pointer.  (FOR INTERNAL USE ONLY)
     private NativeDB mConnectionPtr;
 
     private boolean mOnlyAllowReadOnlyOperations;
 
+    // How long this connection has been acquired by sessions, guarded by the pool's lock.
+    private final long mOpenedNanos = System.nanoTime();
+    private boolean mAcquired;
+    private long mAcquiredNanos;
+    private long mBusyNanos;
+
     // The number of times attachCancellationSignal has been called.
     // Because SQLite statement execution can be reentrant, we keep track of how many
     // times we have attempted to attach a cancellation signal to the connection so that
@@ -125,25 +151,17 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
             int connectionId, boolean primaryConnection) {
         mPool = pool;
         mConfiguration = new SQLiteDatabaseConfiguration(configuration);
+        mRecentOperations = new OperationLog(mConfiguration.label);
+        mSlowQueryThresholdMillis = SQLiteGlobal.getSlowQueryThresholdMillis(mConfiguration.path);
+        mStorageProfile = SQLiteGlobal.getStorageProfile(mConfiguration.path);
         mConnectionId = connectionId;
         mIsPrimaryConnection = primaryConnection;
         mIsReadOnlyConnection = (configuration.openFlags & SQLiteDatabase.OPEN_READONLY) != 0;
         mPreparedStatementCache = new PreparedStatementCache(
-                mConfiguration.maxSqlCacheSize);
-        mCloseGuard.open("close");
-    }
-
-    @Override
-    protected void finalize() throws Throwable {
-        try {
-            if (mPool != null && mConnectionPtr != null) {
-                mPool.onConnectionLeaked();
-            }
-
-            dispose(true);
-        } finally {
-            super.finalize();
-        }
+                Math.max(1, mConfiguration.maxSqlCacheSize));
+        mNativeReleaser = new NativeReleaser(pool);
+        mLeakHandle = SQLiteLeakTracker.track(this, SQLiteLeakTracker.CONNECTION, "close",
+                mNativeReleaser);
     }
 
     // Called by SQLiteConnectionPool only.
@@ -156,7 +174,7 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
             connection.open();
             return connection;
         } catch (SQLiteException ex) {
-            connection.dispose(false);
+            connection.dispose();
             throw ex;
         }
     }
@@ -165,17 +183,21 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
     // Closes the database closes and releases all of its associated resources.
     // Do not call methods on the connection after it is closed.  It will probably crash.
     void close() {
-        dispose(false);
+        dispose();
     }
 
     private void open() {
         mConnectionPtr = NativeKt.Open(mConfiguration.path, mConfiguration.openFlags,
                 mConfiguration.label,
                 SQLiteDebug.DEBUG_SQL_STATEMENTS, SQLiteDebug.DEBUG_SQL_TIME);
+        mNativeReleaser.setConnectionPtr(mConnectionPtr);
 
         setPageSize();
         setForeignKeyModeFromConfiguration();
         setJournalSizeLimit();
+        setCacheSize();
+        setMmapSize();
+        setTempStore();
         setAutoCheckpointInterval();
         if(!NativeKt.HasCodec() ){
             setWalModeFromConfiguration();
@@ -189,13 +211,8 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         }
     }
 
-    private void dispose(boolean finalized) {
-        if (mCloseGuard != null) {
-            if (finalized) {
-                mCloseGuard.warnIfOpen();
-            }
-            mCloseGuard.close();
-        }
+    private void dispose() {
+        mLeakHandle.close();
 
         if (mConnectionPtr != null) {
             final int cookie = mRecentOperations.beginOperation("close", null, null);
@@ -211,7 +228,7 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
 
     private void setPageSize() {
         if (!mConfiguration.isInMemoryDb() && !mIsReadOnlyConnection) {
-            final long newValue = SQLiteGlobal.getDefaultPageSize();
+            final long newValue = mStorageProfile.getPageSize();
             long value = executeForLong("PRAGMA page_size", null, null);
             if (value != newValue) {
                 execute("PRAGMA page_size=" + newValue, null, null);
@@ -231,7 +248,7 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
 
     private void setJournalSizeLimit() {
         if (!mConfiguration.isInMemoryDb() && !mIsReadOnlyConnection) {
-            final long newValue = SQLiteGlobal.getJournalSizeLimit();
+            final long newValue = mStorageProfile.getJournalSizeLimit();
             long value = executeForLong("PRAGMA journal_size_limit", null, null);
             if (value != newValue) {
                 executeForLong("PRAGMA journal_size_limit=" + newValue, null, null);
@@ -239,6 +256,34 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         }
     }
 
+    private void setCacheSize() {
+        // A negative cache size is in KiB rather than pages.
+        final long newValue = -mStorageProfile.getCacheSizeKiB();
+        long value = executeForLong("PRAGMA cache_size", null, null);
+        if (value != newValue) {
+            execute("PRAGMA cache_size=" + newValue, null, null);
+        }
+    }
+
+    private void setMmapSize() {
+        if (!mConfiguration.isInMemoryDb()) {
+            final long newValue = mStorageProfile.getMmapSize();
+            long value = executeForLong("PRAGMA mmap_size", null, null);
+            if (value != newValue) {
+                // Returns the size in effect, which SQLite may cap.
+                executeForLong("PRAGMA mmap_size=" + newValue, null, null);
+            }
+        }
+    }
+
+    private void setTempStore() {
+        final long newValue = mStorageProfile.getTempStore().ordinal();
+        long value = executeForLong("PRAGMA temp_store", null, null);
+        if (value != newValue) {
+            execute("PRAGMA temp_store=" + newValue, null, null);
+        }
+    }
+
     private void setForeignKeyModeFromConfiguration() {
         if (!mIsReadOnlyConnection) {
             final long newValue = mConfiguration.foreignKeyConstraintsEnabled ? 1 : 0;
@@ -388,9 +433,9 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         // Update configuration parameters.
         mConfiguration.updateParametersFrom(configuration);
 
-        // Update prepared statement cache size.
-        // sqlite.org: android.util.LruCache.resize() requires API level 21.
-        // mPreparedStatementCache.resize(configuration.maxSqlCacheSize);
+        // Update prepared statement cache size, finalizing any statements that no
+        // longer fit.  LruCache cannot be empty so a size of 0 keeps a single statement.
+        mPreparedStatementCache.resize(Math.max(1, configuration.maxSqlCacheSize));
 
         // Update foreign key mode.
         if (foreignKeyModeChanged) {
@@ -437,6 +482,43 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         return mIsPrimaryConnection;
     }
 
+    // Called by SQLiteConnectionPool only, while the connection is not in use.
+    // Releases the memory of the page cache, and the cached statements and collation keys
+    // from RUNNING_LOW.
+    void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mPreparedStatementCache.evictAll();
+            NativeKt.TrimLocalizedCollators(mConnectionPtr);
+        }
+        execute("PRAGMA shrink_memory", null, null);
+    }
+
+    // The label of the database, for diagnostics.
+    String getLabel() {
+        return mConfiguration.label;
+    }
+
+    // Called by the pool, under its lock, when a session acquires this connection.
+    void onAcquired(long nowNanos) {
+        mAcquired = true;
+        mAcquiredNanos = nowNanos;
+    }
+
+    // Called by the pool, under its lock, when this connection is released back to it.
+    void onReleased(long nowNanos) {
+        if (mAcquired) {
+            mAcquired = false;
+            mBusyNanos += nowNanos - mAcquiredNanos;
+        }
+    }
+
+    // The fraction of the time since it was opened that this connection was acquired.
+    double getUtilization(long nowNanos) {
+        final long busyNanos = mBusyNanos + (mAcquired ? nowNanos - mAcquiredNanos : 0);
+        final long openNanos = nowNanos - mOpenedNanos;
+        return openNanos > 0 ? (double) busyNanos / openNanos : 0;
+    }
+
     /**
      * Prepares a statement for execution but does not bind its parameters or execute it.
      * <p>
@@ -535,6 +617,7 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
             throw ex;
         } finally {
             mRecentOperations.endOperation(cookie);
+            checkSlowOperation(cookie, sql, bindArgs, -1);
         }
     }
 
@@ -578,6 +661,7 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
             throw ex;
         } finally {
             mRecentOperations.endOperation(cookie);
+            checkSlowOperation(cookie, sql, bindArgs, -1);
         }
     }
 
@@ -621,6 +705,51 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
             throw ex;
         } finally {
             mRecentOperations.endOperation(cookie);
+            checkSlowOperation(cookie, sql, bindArgs, -1);
+        }
+    }
+
+    /**
+     * Executes a statement that returns a single <code>byte[]</code> result.
+     *
+     * @param sql The SQL statement to execute.
+     * @param bindArgs The arguments to bind, or null if none.
+     * @param cancellationSignal A signal to cancel the operation in progress, or null if none.
+     * @return The value of the first column in the first row of the result set
+     * as a <code>byte[]</code>, or null if none.
+     *
+     * @throws SQLiteException if an error occurs, such as a syntax error
+     * or invalid number of bind arguments.
+     * @throws OperationCanceledException if the operation was canceled.
+     */
+    public byte[] executeForBlob(String sql, Object[] bindArgs,
+            CancellationSignal cancellationSignal) {
+        if (sql == null) {
+            throw new IllegalArgumentException("sql must not be null.");
+        }
+
+        final int cookie = mRecentOperations.beginOperation("executeForBlob", sql, bindArgs);
+        try {
+            final PreparedStatement statement = acquirePreparedStatement(sql);
+            try {
+                throwIfStatementForbidden(statement);
+                bindArguments(statement, bindArgs);
+                applyBlockGuardPolicy(statement);
+                attachCancellationSignal(cancellationSignal);
+                try {
+                    return NativeKt.ExecuteForBlob(mConnectionPtr, statement.mStatementPtr);
+                } finally {
+                    detachCancellationSignal(cancellationSignal);
+                }
+            } finally {
+                releasePreparedStatement(statement);
+            }
+        } catch (RuntimeException ex) {
+            mRecentOperations.failOperation(cookie, ex);
+            throw ex;
+        } finally {
+            mRecentOperations.endOperation(cookie);
+            checkSlowOperation(cookie, sql, bindArgs, -1);
         }
     }
 
@@ -718,6 +847,7 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
             if (mRecentOperations.endOperationDeferLog(cookie)) {
                 mRecentOperations.logOperation(cookie, "changedRows=" + changedRows);
             }
+            checkSlowOperation(cookie, sql, bindArgs, changedRows);
         }
     }
 
@@ -763,6 +893,80 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
             throw ex;
         } finally {
             mRecentOperations.endOperation(cookie);
+            checkSlowOperation(cookie, sql, bindArgs, -1);
+        }
+    }
+
+    /**
+     * Executes a statement once for each row of arguments, preparing it only once.
+     *
+     * @param sql The SQL statement to execute.
+     * @param bindArgs The arguments to bind for each execution.
+     * @param returnRowIds True to return the row id of the row inserted by each execution,
+     * false to return the number of rows it changed.
+     * @param cancellationSignal A signal to cancel the operation in progress, or null if none.
+     * @return The row id or the number of rows changed of each execution.
+     *
+     * @throws SQLiteException if an error occurs, such as a syntax error
+     * or invalid number of bind arguments.
+     * @throws OperationCanceledException if the operation was canceled.
+     */
+    public long[] executeBatch(String sql, Object[][] bindArgs, boolean returnRowIds,
+            CancellationSignal cancellationSignal) {
+        if (sql == null) {
+            throw new IllegalArgumentException("sql must not be null.");
+        }
+        if (bindArgs == null) {
+            throw new IllegalArgumentException("bindArgs must not be null.");
+        }
+
+        final int cookie = mRecentOperations.beginOperation("executeBatch", sql, null);
+        long changedRows = -1;
+        try {
+            final PreparedStatement statement = acquirePreparedStatement(sql);
+            try {
+                throwIfStatementForbidden(statement);
+                applyBlockGuardPolicy(statement);
+                attachCancellationSignal(cancellationSignal);
+                final PreparedStatement rowIdStatement = returnRowIds
+                        ? acquirePreparedStatement(LAST_INSERT_ROWID_SQL) : null;
+                try {
+                    final long rowIdStatementPtr = rowIdStatement != null
+                            ? rowIdStatement.mStatementPtr : 0;
+                    final long[] results = new long[bindArgs.length];
+                    long changed = 0;
+                    for (int i = 0; i < bindArgs.length; i++) {
+                        if (i > 0) {
+                            NativeKt.ResetStatementAndClearBindings(
+                                    mConnectionPtr, statement.mStatementPtr);
+                        }
+                        bindArguments(statement, bindArgs[i]);
+                        results[i] = NativeKt.ExecuteBatchRow(
+                                mConnectionPtr, statement.mStatementPtr, rowIdStatementPtr);
+                        // A row ID stands for one inserted row, -1 for a row that was not inserted
+                        if (returnRowIds) {
+                            changed += results[i] != -1 ? 1 : 0;
+                        } else {
+                            changed += results[i];
+                        }
+                    }
+                    changedRows = changed;
+                    return results;
+                } finally {
+                    if (rowIdStatement != null) {
+                        releasePreparedStatement(rowIdStatement);
+                    }
+                    detachCancellationSignal(cancellationSignal);
+                }
+            } finally {
+                releasePreparedStatement(statement);
+            }
+        } catch (RuntimeException ex) {
+            mRecentOperations.failOperation(cookie, ex);
+            throw ex;
+        } finally {
+            mRecentOperations.endOperation(cookie);
+            checkSlowOperation(cookie, sql, null, changedRows);
         }
     }
 
@@ -812,6 +1016,12 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
                     bindArguments(statement, bindArgs);
                     applyBlockGuardPolicy(statement);
                     attachCancellationSignal(cancellationSignal);
+                    final SQLiteEvents.CursorWindowFill event =
+                            SQLiteEvents.CursorWindowFill.TYPE.isEnabled()
+                                    ? new SQLiteEvents.CursorWindowFill() : null;
+                    if (event != null) {
+                        event.begin();
+                    }
                     try {
                         final long result = NativeKt.ExecuteForCursorWindow(
                                 mConnectionPtr, statement.mStatementPtr, window,
@@ -820,6 +1030,14 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
                         countedRows = (int)result;
                         filledRows = window.getNumRows();
                         window.setStartPosition(actualPos);
+                        if (event != null && event.shouldCommit()) {
+                            event.database = mConfiguration.label;
+                            event.sql = sql;
+                            event.startPos = actualPos;
+                            event.rows = filledRows;
+                            event.countedRows = countedRows;
+                            event.commit();
+                        }
                         return countedRows;
                     } finally {
                         detachCancellationSignal(cancellationSignal);
@@ -838,14 +1056,39 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
                             + ", filledRows=" + filledRows
                             + ", countedRows=" + countedRows);
                 }
+                checkSlowOperation(cookie, sql, bindArgs, countedRows);
             }
         } finally {
             window.releaseReference();
         }
     }
 
+    // Records the operation in the slow query log if it took at least the configured threshold,
+    // capturing the query plan of the statement on this connection the first time it does.
+    private void checkSlowOperation(int cookie, String sql, Object[] bindArgs, long rows) {
+        if (mSlowQueryThresholdMillis < 0) {
+            return;
+        }
+        final long elapsedMillis = mRecentOperations.getElapsedMillis(cookie);
+        if (elapsedMillis < mSlowQueryThresholdMillis
+                || !SQLiteSlowQueryLog.record(mConfiguration.label, sql, bindArgs, rows,
+                        elapsedMillis)) {
+            return;
+        }
+        String queryPlan;
+        try {
+            queryPlan = NativeKt.ExplainQueryPlan(mConnectionPtr, sql);
+        } catch (Exception ex) {
+            queryPlan = "<unavailable: " + ex.getMessage() + ">";
+        }
+        SQLiteSlowQueryLog.setQueryPlan(mConfiguration.label, sql, queryPlan);
+        Log.w(TAG, "Slow statement on '" + mConfiguration.label + "' took " + elapsedMillis
+                + "ms, sql=\"" + trimSqlForDisplay(sql) + "\", query plan:\n" + queryPlan);
+    }
+
     private PreparedStatement acquirePreparedStatement(String sql) {
         PreparedStatement statement = mPreparedStatementCache.get(sql);
+        mPreparedStatementCache.recordLookup(statement != null);
         boolean skipCache = false;
         if (statement != null) {
             if (!statement.mInUse) {
@@ -857,21 +1100,39 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
             skipCache = true;
         }
 
+        final SQLiteEvents.Prepare event =
+                SQLiteEvents.Prepare.TYPE.isEnabled() ? new SQLiteEvents.Prepare() : null;
+        if (event != null) {
+            event.begin();
+        }
         final long statementPtr = NativeKt.PrepareStatement(mConnectionPtr, sql);
+        mNativeReleaser.onStatementPrepared(statementPtr);
         try {
             final int numParameters = NativeKt.GetParameterCount(mConnectionPtr, statementPtr);
             final int type = DatabaseUtils.getSqlStatementType(sql);
-            final boolean readOnly = NativeKt.IsReadOnly(mConnectionPtr, statementPtr);
+            final boolean readOnly = NativeKt.IsReadOnly(mConnectionPtr, statementPtr, sql);
+            if (type == DatabaseUtils.STATEMENT_PRAGMA && mIsPrimaryConnection
+                    && EXCLUSIVE_LOCKING_MODE_PATTERN.matcher(sql).find()) {
+                // Once the primary connection holds the database file exclusively no
+                // other connection can read it, so stop handing out non-primary ones.
+                mPool.onPrimaryConnectionLockedExclusively();
+            }
             statement = obtainPreparedStatement(sql, statementPtr, numParameters, type, readOnly);
             if (!skipCache && isCacheable(type)) {
                 mPreparedStatementCache.put(sql, statement);
                 statement.mInCache = true;
             }
+            if (event != null && event.shouldCommit()) {
+                event.database = mConfiguration.label;
+                event.sql = sql;
+                event.commit();
+            }
         } catch (RuntimeException ex) {
             // Finalize the statement if an exception occurred and we did not add
             // it to the cache.  If it is already in the cache, then leave it there.
             if (statement == null || !statement.mInCache) {
                 NativeKt.FinalizeStatement(mConnectionPtr, statementPtr);
+                mNativeReleaser.onStatementFinalized(statementPtr);
             }
             throw ex;
         }
@@ -904,6 +1165,7 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
 
     private void finalizePreparedStatement(PreparedStatement statement) {
         NativeKt.FinalizeStatement(mConnectionPtr, statement.mStatementPtr);
+        mNativeReleaser.onStatementFinalized(statement.mStatementPtr);
         recyclePreparedStatement(statement);
     }
 
@@ -1132,9 +1394,11 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
             label += " (" + mConnectionId + ")";
         }
         return new DbStats(label, pageCount, pageSize, lookaside,
-                mPreparedStatementCache.hitCount(),
-                mPreparedStatementCache.missCount(),
-                mPreparedStatementCache.size());
+                mPreparedStatementCache.statementHitCount(),
+                mPreparedStatementCache.statementMissCount(),
+                mPreparedStatementCache.size(),
+                mPreparedStatementCache.evictionCount(),
+                mPreparedStatementCache.maxSize());
     }
 
     @Override
@@ -1174,6 +1438,52 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         return sql.replaceAll("[\\s]*\\n+[\\s]*", " ");
     }
 
+    /**
+     * Finalizes the statements and closes the native database of a connection that was leaked.
+     *
+     * It runs on the cleaner thread once the connection is unreachable, so it must not reference
+     * the connection, and it only holds the pool weakly so a leaked database can still be
+     * collected with its pool and connections.
+     */
+    private static final class NativeReleaser implements Runnable {
+        private final WeakReference<SQLiteConnectionPool> mPool;
+        private final HashSet<Long> mStatementPtrs = new HashSet<Long>();
+        private NativeDB mConnectionPtr;
+
+        NativeReleaser(SQLiteConnectionPool pool) {
+            mPool = new WeakReference<SQLiteConnectionPool>(pool);
+        }
+
+        synchronized void setConnectionPtr(NativeDB connectionPtr) {
+            mConnectionPtr = connectionPtr;
+        }
+
+        synchronized void onStatementPrepared(long statementPtr) {
+            mStatementPtrs.add(statementPtr);
+        }
+
+        synchronized void onStatementFinalized(long statementPtr) {
+            mStatementPtrs.remove(statementPtr);
+        }
+
+        @Override
+        public synchronized void run() {
+            if (mConnectionPtr == null) {
+                return;
+            }
+            final SQLiteConnectionPool pool = mPool.get();
+            if (pool != null) {
+                pool.onConnectionLeaked();
+            }
+            for (long statementPtr : mStatementPtrs) {
+                NativeKt.FinalizeStatement(mConnectionPtr, statementPtr);
+            }
+            mStatementPtrs.clear();
+            NativeKt.Close(mConnectionPtr);
+            mConnectionPtr = null;
+        }
+    }
+
     /**
      * Holder type for a prepared statement.
      *
@@ -1216,10 +1526,31 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
 
     private final class PreparedStatementCache
             extends LruCache<String, PreparedStatement> {
+        // Lookups made to execute a statement.  The counters kept by LruCache also
+        // include the pool probing the cache through isPreparedStatementInCache().
+        private int mStatementHitCount;
+        private int mStatementMissCount;
+
         public PreparedStatementCache(int size) {
             super(size);
         }
 
+        public synchronized void recordLookup(boolean hit) {
+            if (hit) {
+                mStatementHitCount++;
+            } else {
+                mStatementMissCount++;
+            }
+        }
+
+        public synchronized int statementHitCount() {
+            return mStatementHitCount;
+        }
+
+        public synchronized int statementMissCount() {
+            return mStatementMissCount;
+        }
+
         @Override
         protected void entryRemoved(boolean evicted, String key,
                 PreparedStatement oldValue, PreparedStatement newValue) {
@@ -1230,7 +1561,9 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         }
 
         public void dump(Printer printer) {
-            printer.println("  Prepared statement cache:");
+            printer.println("  Prepared statement cache: size=" + size() + "/" + maxSize()
+                    + ", hits=" + statementHitCount() + ", misses=" + statementMissCount()
+                    + ", evictions=" + evictionCount());
             Map<String, PreparedStatement> cache = snapshot();
             if (!cache.isEmpty()) {
                 int i = 0;
@@ -1259,9 +1592,14 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         private static final int COOKIE_INDEX_MASK = 0xff;
 
         private final Operation[] mOperations = new Operation[MAX_RECENT_OPERATIONS];
+        private final String mLabel;
         private int mIndex;
         private int mGeneration;
 
+        OperationLog(String label) {
+            mLabel = label;
+        }
+
         public int beginOperation(String kind, String sql, Object[] bindArgs) {
             synchronized (mOperations) {
                 final int index = (mIndex + 1) % MAX_RECENT_OPERATIONS;
@@ -1296,6 +1634,11 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
                         }
                     }
                 }
+                operation.mEvent = null;
+                if (SQLiteEvents.Execute.TYPE.isEnabled()) {
+                    operation.mEvent = new SQLiteEvents.Execute();
+                    operation.mEvent.begin();
+                }
                 operation.mCookie = newOperationCookieLocked(index);
                 mIndex = index;
                 return operation.mCookie;
@@ -1325,6 +1668,14 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
             }
         }
 
+        public long getElapsedMillis(int cookie) {
+            synchronized (mOperations) {
+                final Operation operation = getOperationLocked(cookie);
+                return operation != null && operation.mFinished
+                        ? operation.mEndTime - operation.mStartTime : 0;
+            }
+        }
+
         public void logOperation(int cookie, String detail) {
             synchronized (mOperations) {
                 logOperationLocked(cookie, detail);
@@ -1336,12 +1687,28 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
             if (operation != null) {
                 operation.mEndTime = SystemClock.uptimeMillis();
                 operation.mFinished = true;
+                commitEventLocked(operation);
                 return SQLiteDebug.DEBUG_LOG_SLOW_QUERIES && SQLiteDebug.shouldLogSlowQuery(
                                 operation.mEndTime - operation.mStartTime);
             }
             return false;
         }
 
+        private void commitEventLocked(Operation operation) {
+            final SQLiteEvents.Execute event = operation.mEvent;
+            if (event != null) {
+                operation.mEvent = null;
+                event.end();
+                if (event.shouldCommit()) {
+                    event.database = mLabel;
+                    event.kind = operation.mKind;
+                    event.sql = operation.mSql;
+                    event.failed = operation.mException != null;
+                    event.commit();
+                }
+            }
+        }
+
         private void logOperationLocked(int cookie, String detail) {
             final Operation operation = getOperationLocked(cookie);
             StringBuilder msg = new StringBuilder();
@@ -1421,6 +1788,7 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         public boolean mFinished;
         public Exception mException;
         public int mCookie;
+        public SQLiteEvents.Execute mEvent;
 
         public void describe(StringBuilder msg, boolean verbose) {
             msg.append(mKind);
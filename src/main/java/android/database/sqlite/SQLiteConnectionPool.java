@@ -20,8 +20,8 @@
 
 package android.database.sqlite;
 
-import android.database.sqlite.CloseGuard;
 
+import android.content.ComponentCallbacks2;
 import android.database.sqlite.SQLiteDebug.DbStats;
 import android.os.CancellationSignal;
 import android.os.OperationCanceledException;
@@ -35,6 +35,7 @@ import java.util.Map;
 import java.util.WeakHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Maintains a pool of active SQLite database connections.
@@ -79,17 +80,27 @@ public final class SQLiteConnectionPool implements Closeable {
     // and logging a message about the connection pool being busy.
     private static final long CONNECTION_POOL_BUSY_MILLIS = 30 * 1000; // 30 seconds
 
-    private final CloseGuard mCloseGuard = CloseGuard.get();
+    private SQLiteLeakTracker.Handle mLeakHandle;
 
-    private final Object mLock = new Object();
+    private final ReentrantLock mLock = new ReentrantLock();
     private final AtomicBoolean mConnectionLeaked = new AtomicBoolean();
     private final SQLiteDatabaseConfiguration mConfiguration;
     private int mMaxConnectionPoolSize;
+    private boolean mPrimaryConnectionLockedExclusively;
     private boolean mIsOpen;
     private int mNextConnectionId;
 
     private ConnectionWaiter mConnectionWaiterPool;
     private ConnectionWaiter mConnectionWaiterQueue;
+    private int mConnectionWaiterCount;
+
+    // How long acquiring a connection took, for SQLiteDebug.getPoolStats().
+    private final long[] mAcquireLatencyHistogram = new long[SQLiteDebug.PoolStats.LATENCY_BUCKETS];
+    private long mAcquireCount;
+    private long mWaitCount;
+    private long mTotalWaitNanos;
+    private long mMaxWaitNanos;
+    private int mMaxConnectionWaiterCount;
 
     // Strong references to all available connections.
     private final ArrayList<SQLiteConnection> mAvailableNonPrimaryConnections =
@@ -153,15 +164,6 @@ public final class SQLiteConnectionPool implements Closeable {
         setMaxConnectionPoolSizeLocked();
     }
 
-    @Override
-    protected void finalize() throws Throwable {
-        try {
-            dispose(true);
-        } finally {
-            super.finalize();
-        }
-    }
-
     /**
      * Opens a connection pool for the specified database.
      *
@@ -190,7 +192,8 @@ public final class SQLiteConnectionPool implements Closeable {
 
         // Mark the pool as being open for business.
         mIsOpen = true;
-        mCloseGuard.open("close");
+        mLeakHandle = SQLiteLeakTracker.track(this, SQLiteLeakTracker.CONNECTION_POOL, "close",
+                null);
     }
 
     /**
@@ -205,39 +208,32 @@ public final class SQLiteConnectionPool implements Closeable {
      * @throws IllegalStateException if the pool has been closed.
      */
     public void close() {
-        dispose(false);
-    }
-
-    private void dispose(boolean finalized) {
-        if (mCloseGuard != null) {
-            if (finalized) {
-                mCloseGuard.warnIfOpen();
-            }
-            mCloseGuard.close();
+        if (mLeakHandle != null) {
+            mLeakHandle.close();
         }
 
-        if (!finalized) {
-            // Close all connections.  We don't need (or want) to do this
-            // when finalized because we don't know what state the connections
-            // themselves will be in.  The finalizer is really just here for CloseGuard.
-            // The connections will take care of themselves when their own finalizers run.
-            synchronized (mLock) {
-                throwIfClosedLocked();
+        // Close all connections.  A leaked pool does not do this because we don't know
+        // what state the connections themselves will be in.  The leak tracker only reports
+        // it, and the connections take care of themselves when they are cleaned.
+        mLock.lock();
+        try {
+            throwIfClosedLocked();
 
-                mIsOpen = false;
+            mIsOpen = false;
 
-                closeAvailableConnectionsAndLogExceptionsLocked();
-
-                final int pendingCount = mAcquiredConnections.size();
-                if (pendingCount != 0) {
-                    Log.i(TAG, "The connection pool for " + mConfiguration.label
-                            + " has been closed but there are still "
-                            + pendingCount + " connections in use.  They will be closed "
-                            + "as they are released back to the pool.");
-                }
+            closeAvailableConnectionsAndLogExceptionsLocked();
 
-                wakeConnectionWaitersLocked();
+            final int pendingCount = mAcquiredConnections.size();
+            if (pendingCount != 0) {
+                Log.i(TAG, "The connection pool for " + mConfiguration.label
+                        + " has been closed but there are still "
+                        + pendingCount + " connections in use.  They will be closed "
+                        + "as they are released back to the pool.");
             }
+
+            wakeConnectionWaitersLocked();
+        } finally {
+            mLock.unlock();
         }
     }
 
@@ -259,7 +255,8 @@ public final class SQLiteConnectionPool implements Closeable {
             throw new IllegalArgumentException("configuration must not be null.");
         }
 
-        synchronized (mLock) {
+        mLock.lock();
+        try {
             throwIfClosedLocked();
 
             boolean walModeChanged = ((configuration.openFlags ^ mConfiguration.openFlags)
@@ -313,6 +310,7 @@ public final class SQLiteConnectionPool implements Closeable {
                 discardAcquiredConnectionsLocked();
 
                 mAvailablePrimaryConnection = newPrimaryConnection;
+                mPrimaryConnectionLockedExclusively = false;
                 mConfiguration.updateParametersFrom(configuration);
                 setMaxConnectionPoolSizeLocked();
             } else {
@@ -325,6 +323,8 @@ public final class SQLiteConnectionPool implements Closeable {
             }
 
             wakeConnectionWaitersLocked();
+        } finally {
+            mLock.unlock();
         }
     }
 
@@ -364,13 +364,15 @@ public final class SQLiteConnectionPool implements Closeable {
      * from this pool or if it has already been released.
      */
     public void releaseConnection(SQLiteConnection connection) {
-        synchronized (mLock) {
+        mLock.lock();
+        try {
             AcquiredConnectionStatus status = mAcquiredConnections.remove(connection);
             if (status == null) {
                 throw new IllegalStateException("Cannot perform this operation "
                         + "because the specified connection was not acquired "
                         + "from this pool or has already been released.");
             }
+            connection.onReleased(System.nanoTime());
 
             if (!mIsOpen) {
                 closeConnectionAndLogExceptionsLocked(connection);
@@ -388,6 +390,8 @@ public final class SQLiteConnectionPool implements Closeable {
                 }
                 wakeConnectionWaitersLocked();
             }
+        } finally {
+            mLock.unlock();
         }
     }
 
@@ -422,7 +426,8 @@ public final class SQLiteConnectionPool implements Closeable {
      * from this pool or if it has already been released.
      */
     public boolean shouldYieldConnection(SQLiteConnection connection, int connectionFlags) {
-        synchronized (mLock) {
+        mLock.lock();
+        try {
             if (!mAcquiredConnections.containsKey(connection)) {
                 throw new IllegalStateException("Cannot perform this operation "
                         + "because the specified connection was not acquired "
@@ -435,6 +440,49 @@ public final class SQLiteConnectionPool implements Closeable {
 
             return isSessionBlockingImportantConnectionWaitersLocked(
                     connection.isPrimaryConnection(), connectionFlags);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Releases memory held by the connections that are not in use.  They shrink their page
+     * caches, from {@link ComponentCallbacks2#TRIM_MEMORY_RUNNING_LOW} they also finalize
+     * their cached statements, and from {@link ComponentCallbacks2#TRIM_MEMORY_RUNNING_CRITICAL}
+     * the non-primary ones are closed.
+     *
+     * @param level One of the {@code TRIM_MEMORY_RUNNING_*} levels of {@link ComponentCallbacks2}.
+     */
+    public void trimMemory(int level) {
+        mLock.lock();
+        try {
+            if (!mIsOpen) {
+                return;
+            }
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+                closeAvailableNonPrimaryConnectionsAndLogExceptionsLocked();
+            }
+            final int count = mAvailableNonPrimaryConnections.size();
+            for (int i = 0; i < count; i++) {
+                trimConnectionAndLogExceptionsLocked(mAvailableNonPrimaryConnections.get(i), level);
+            }
+            if (mAvailablePrimaryConnection != null) {
+                trimConnectionAndLogExceptionsLocked(mAvailablePrimaryConnection, level);
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    // Can't throw.
+    private void trimConnectionAndLogExceptionsLocked(SQLiteConnection connection, int level) {
+        try {
+            // The connection is idle, but may still be restricted to the read-only operations
+            // of its last session, which would forbid the pragma that shrinks its memory.
+            connection.setOnlyAllowReadOnlyOperations(false);
+            connection.trimMemory(level); // might throw
+        } catch (RuntimeException ex) {
+            Log.e(TAG, "Failed to trim the memory of connection " + connection, ex);
         }
     }
 
@@ -444,7 +492,8 @@ public final class SQLiteConnectionPool implements Closeable {
      * @param dbStatsList The list to populate.
      */
     public void collectDbStats(ArrayList<DbStats> dbStatsList) {
-        synchronized (mLock) {
+        mLock.lock();
+        try {
             if (mAvailablePrimaryConnection != null) {
                 mAvailablePrimaryConnection.collectDbStats(dbStatsList);
             }
@@ -456,6 +505,61 @@ public final class SQLiteConnectionPool implements Closeable {
             for (SQLiteConnection connection : mAcquiredConnections.keySet()) {
                 connection.collectDbStatsUnsafe(dbStatsList);
             }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Collects statistics about the time taken to acquire connections and how busy the
+     * connections are.
+     *
+     * @param poolStatsList The list to populate.
+     */
+    public void collectPoolStats(ArrayList<SQLiteDebug.PoolStats> poolStatsList) {
+        mLock.lock();
+        try {
+            final SQLiteDebug.PoolStats stats = new SQLiteDebug.PoolStats();
+            stats.dbName = mConfiguration.label;
+            stats.maxConnections = mMaxConnectionPoolSize;
+            stats.acquiredConnections = mAcquiredConnections.size();
+            stats.waiters = mConnectionWaiterCount;
+            stats.maxWaiters = mMaxConnectionWaiterCount;
+            stats.acquireCount = mAcquireCount;
+            stats.waitCount = mWaitCount;
+            stats.totalWaitMillis = mTotalWaitNanos / 1000000L;
+            stats.maxWaitMillis = mMaxWaitNanos / 1000000L;
+            stats.acquireLatencyHistogram = mAcquireLatencyHistogram.clone();
+
+            final ArrayList<SQLiteConnection> connections = new ArrayList<SQLiteConnection>();
+            if (mAvailablePrimaryConnection != null) {
+                connections.add(mAvailablePrimaryConnection);
+            }
+            connections.addAll(mAvailableNonPrimaryConnections);
+            connections.addAll(mAcquiredConnections.keySet());
+            final long now = System.nanoTime();
+            stats.openConnections = connections.size();
+            stats.connectionIds = new int[connections.size()];
+            stats.connectionUtilization = new double[connections.size()];
+            for (int i = 0; i < connections.size(); i++) {
+                stats.connectionIds[i] = connections.get(i).getConnectionId();
+                stats.connectionUtilization[i] = connections.get(i).getUtilization(now);
+            }
+            poolStatsList.add(stats);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    // Can't throw.
+    private void recordAcquireLocked(long startNanos, boolean waited) {
+        final long elapsedNanos = System.nanoTime() - startNanos;
+        mAcquireCount += 1;
+        mAcquireLatencyHistogram[SQLiteDebug.PoolStats.getLatencyBucket(elapsedNanos)] += 1;
+        if (waited) {
+            mWaitCount += 1;
+            mTotalWaitNanos += elapsedNanos;
+            mMaxWaitNanos = Math.max(mMaxWaitNanos, elapsedNanos);
         }
     }
 
@@ -467,11 +571,27 @@ public final class SQLiteConnectionPool implements Closeable {
                 connectionId, primaryConnection); // might throw
     }
 
+    // Called by the primary connection when it switches to the exclusive locking mode,
+    // for example by "PRAGMA locking_mode = EXCLUSIVE".  It then holds on to its lock on the
+    // database file so no other connection can read from it, even in WAL mode.
+    void onPrimaryConnectionLockedExclusively() {
+        mLock.lock();
+        try {
+            if (!mPrimaryConnectionLockedExclusively) {
+                mPrimaryConnectionLockedExclusively = true;
+                setMaxConnectionPoolSizeLocked();
+                closeExcessConnectionsAndLogExceptionsLocked();
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
     void onConnectionLeaked() {
-        // This code is running inside of the SQLiteConnection finalizer.
+        // This code is running on the leak tracker's cleaner thread.
         //
-        // We don't know whether it is just the connection that has been finalized (and leaked)
-        // or whether the connection pool has also been or is about to be finalized.
+        // We don't know whether it is just the connection that has been cleaned (and leaked)
+        // or whether the connection pool has also been or is about to be collected.
         // Consequently, it would be a bad idea to try to grab any locks or to
         // do any significant work here.  So we do the simplest possible thing and
         // set a flag.  waitForConnection() periodically checks this flag (when it
@@ -595,10 +715,12 @@ public final class SQLiteConnectionPool implements Closeable {
             CancellationSignal cancellationSignal) {
         final boolean wantPrimaryConnection =
                 (connectionFlags & CONNECTION_FLAG_PRIMARY_CONNECTION_AFFINITY) != 0;
+        final long acquireStartNanos = System.nanoTime();
 
         final ConnectionWaiter waiter;
         final int nonce;
-        synchronized (mLock) {
+        mLock.lock();
+        try {
             throwIfClosedLocked();
 
             // Abort if canceled.
@@ -616,6 +738,7 @@ public final class SQLiteConnectionPool implements Closeable {
                 connection = tryAcquirePrimaryConnectionLocked(connectionFlags); // might throw
             }
             if (connection != null) {
+                recordAcquireLocked(acquireStartNanos, false);
                 return connection;
             }
 
@@ -639,8 +762,18 @@ public final class SQLiteConnectionPool implements Closeable {
             } else {
                 mConnectionWaiterQueue = waiter;
             }
+            mConnectionWaiterCount += 1;
+            mMaxConnectionWaiterCount = Math.max(mMaxConnectionWaiterCount, mConnectionWaiterCount);
 
             nonce = waiter.mNonce;
+        } finally {
+            mLock.unlock();
+        }
+
+        final SQLiteEvents.PoolWait event =
+                SQLiteEvents.PoolWait.TYPE.isEnabled() ? new SQLiteEvents.PoolWait() : null;
+        if (event != null) {
+            event.begin();
         }
 
         // Set up the cancellation listener.
@@ -648,10 +781,13 @@ public final class SQLiteConnectionPool implements Closeable {
             cancellationSignal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
                 @Override
                 public void onCancel() {
-                    synchronized (mLock) {
+                    mLock.lock();
+                    try {
                         if (waiter.mNonce == nonce) {
                             cancelConnectionWaiterLocked(waiter);
                         }
+                    } finally {
+                        mLock.unlock();
                     }
                 }
             });
@@ -664,8 +800,11 @@ public final class SQLiteConnectionPool implements Closeable {
             for (;;) {
                 // Detect and recover from connection leaks.
                 if (mConnectionLeaked.compareAndSet(true, false)) {
-                    synchronized (mLock) {
+                    mLock.lock();
+                    try {
                         wakeConnectionWaitersLocked();
+                    } finally {
+                        mLock.unlock();
                     }
                 }
 
@@ -676,14 +815,23 @@ public final class SQLiteConnectionPool implements Closeable {
                 Thread.interrupted();
 
                 // Check whether we are done waiting yet.
-                synchronized (mLock) {
+                mLock.lock();
+                try {
                     throwIfClosedLocked();
 
                     final SQLiteConnection connection = waiter.mAssignedConnection;
                     final RuntimeException ex = waiter.mException;
                     if (connection != null || ex != null) {
                         recycleConnectionWaiterLocked(waiter);
+                        if (event != null && event.shouldCommit()) {
+                            event.database = mConfiguration.label;
+                            event.primary = wantPrimaryConnection;
+                            event.sql = sql;
+                            event.granted = connection != null;
+                            event.commit();
+                        }
                         if (connection != null) {
+                            recordAcquireLocked(acquireStartNanos, true);
                             return connection;
                         }
                         throw ex; // rethrow!
@@ -691,12 +839,14 @@ public final class SQLiteConnectionPool implements Closeable {
 
                     final long now = SystemClock.uptimeMillis();
                     if (now < nextBusyTimeoutTime) {
-                        busyTimeoutMillis = now - nextBusyTimeoutTime;
+                        busyTimeoutMillis = nextBusyTimeoutTime - now;
                     } else {
                         logConnectionPoolBusyLocked(now - waiter.mStartTime, connectionFlags);
                         busyTimeoutMillis = CONNECTION_POOL_BUSY_MILLIS;
                         nextBusyTimeoutTime = now + busyTimeoutMillis;
                     }
+                } finally {
+                    mLock.unlock();
                 }
             }
         } finally {
@@ -727,6 +877,7 @@ public final class SQLiteConnectionPool implements Closeable {
         } else {
             mConnectionWaiterQueue = waiter.mNext;
         }
+        mConnectionWaiterCount -= 1;
 
         // Send the waiter an exception and unpark it.
         waiter.mException = new OperationCanceledException();
@@ -832,6 +983,7 @@ public final class SQLiteConnectionPool implements Closeable {
                     mConnectionWaiterQueue = successor;
                 }
                 waiter.mNext = null;
+                mConnectionWaiterCount -= 1;
 
                 LockSupport.unpark(waiter.mThread);
             } else {
@@ -912,6 +1064,7 @@ public final class SQLiteConnectionPool implements Closeable {
             connection.setOnlyAllowReadOnlyOperations(readOnly);
 
             mAcquiredConnections.put(connection, AcquiredConnectionStatus.NORMAL);
+            connection.onAcquired(System.nanoTime());
         } catch (RuntimeException ex) {
             Log.e(TAG, "Failed to prepare acquired connection for session, closing it: "
                     + connection +", connectionFlags=" + connectionFlags);
@@ -949,7 +1102,9 @@ public final class SQLiteConnectionPool implements Closeable {
     }
 
     private void setMaxConnectionPoolSizeLocked() {
-        if ((mConfiguration.openFlags & SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING) != 0) {
+        if (mPrimaryConnectionLockedExclusively) {
+            mMaxConnectionPoolSize = 1;
+        } else if ((mConfiguration.openFlags & SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING) != 0) {
             mMaxConnectionPoolSize = SQLiteGlobal.getWALConnectionPoolSize();
         } else {
             // TODO: We don't actually need to restrict the connection pool size to 1
@@ -996,13 +1151,16 @@ public final class SQLiteConnectionPool implements Closeable {
     }
 
     public void enableLocalizedCollators() {
-      synchronized (mLock) {
+      mLock.lock();
+      try {
 	if( !mAcquiredConnections.isEmpty() || mAvailablePrimaryConnection==null ) {
 	  throw new IllegalStateException(
 	      "Cannot enable localized collators while database is in use"
 	  );
 	}
 	mAvailablePrimaryConnection.enableLocalizedCollators();
+      } finally {
+          mLock.unlock();
       }
     }
 
@@ -1014,7 +1172,8 @@ public final class SQLiteConnectionPool implements Closeable {
      */
     public void dump(Printer printer, boolean verbose) {
         Printer indentedPrinter = printer;
-        synchronized (mLock) {
+        mLock.lock();
+        try {
             printer.println("Connection pool for " + mConfiguration.path + ":");
             printer.println("  Open: " + mIsOpen);
             printer.println("  Max connections: " + mMaxConnectionPoolSize);
@@ -1063,6 +1222,8 @@ public final class SQLiteConnectionPool implements Closeable {
             } else {
                 indentedPrinter.println("<none>");
             }
+        } finally {
+            mLock.unlock();
         }
     }
 
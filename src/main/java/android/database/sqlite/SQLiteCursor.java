@@ -34,6 +34,10 @@ import java.util.Map;
  * A Cursor implementation that exposes results from a query on a
  * {@link SQLiteDatabase}.
  *
+ * The rows are only counted when {@link #getCount()} is called.  Moving through the
+ * cursor fills one window at a time and stops stepping the query once the window is
+ * full, so rows past the last one read are never produced.
+ *
  * SQLiteCursor is not internally synchronized so code using a SQLiteCursor from multiple
  * threads should perform its own synchronization when using the SQLiteCursor.
  */
@@ -115,9 +119,8 @@ public class SQLiteCursor extends AbstractWindowedCursor {
     @Override
     public boolean onMove(int oldPosition, int newPosition) {
         // Make sure the row at newPosition is present in the window
-        if (mWindow == null || newPosition < mWindow.getStartPosition() ||
-                newPosition >= (mWindow.getStartPosition() + mWindow.getNumRows())) {
-            fillWindow(newPosition);
+        if (!isInWindow(newPosition)) {
+            fillWindow(newPosition, false);
         }
 
         return true;
@@ -126,11 +129,30 @@ public class SQLiteCursor extends AbstractWindowedCursor {
     @Override
     public int getCount() {
         if (mCount == NO_COUNT) {
-            fillWindow(0);
+            fillWindow(Math.max(mPos, 0), true);
         }
         return mCount;
     }
 
+    @Override
+    protected boolean hasRow(int position) {
+        if (mCount != NO_COUNT) {
+            return position < mCount;
+        }
+        if (isInWindow(position)) {
+            return true;
+        }
+        // Filling the window either brings in the row or steps to the end of the
+        // results, in which case the count is known.
+        fillWindow(position, false);
+        return mCount == NO_COUNT || position < mCount;
+    }
+
+    private boolean isInWindow(int position) {
+        return mWindow != null && position >= mWindow.getStartPosition()
+                && position < mWindow.getStartPosition() + mWindow.getNumRows();
+    }
+
     /* 
     ** The AbstractWindowClass contains protected methods clearOrCreateWindow() and
     ** closeWindow(), which are used by the android.database.sqlite.* version of this
@@ -150,21 +172,28 @@ public class SQLiteCursor extends AbstractWindowedCursor {
       setWindow(null);
     }
 
-    private void fillWindow(int requiredPos) {
+    private void fillWindow(int requiredPos, boolean countAllRows) {
         awc_clearOrCreateWindow(getDatabase().getPath());
 
         try {
-            if (mCount == NO_COUNT) {
-                int startPos = DatabaseUtils.cursorPickFillWindowStartPosition(requiredPos, 0);
-                mCount = mQuery.fillWindow(mWindow, startPos, requiredPos, true);
+            int startPos = DatabaseUtils.cursorPickFillWindowStartPosition(requiredPos,
+                    mCursorWindowCapacity);
+            int countedRows = mQuery.fillWindow(mWindow, startPos, requiredPos, countAllRows);
+            if (mCursorWindowCapacity == 0) {
                 mCursorWindowCapacity = mWindow.getNumRows();
+            }
+            // When the window filled up the query also counts the row that did not fit,
+            // so the count only stops at the end of the window if the query is done.
+            if (countAllRows
+                    || countedRows <= mWindow.getStartPosition() + mWindow.getNumRows()) {
+                mCount = countedRows;
                 if (Log.isLoggable(TAG, Log.DEBUG)) {
                     Log.d(TAG, "received count(*) from native_fill_window: " + mCount);
                 }
-            } else {
-                int startPos = DatabaseUtils.cursorPickFillWindowStartPosition(requiredPos,
-                        mCursorWindowCapacity);
-                mQuery.fillWindow(mWindow, startPos, requiredPos, false);
+            }
+            if ((mCount == NO_COUNT || requiredPos < mCount) && !isInWindow(requiredPos)) {
+                throw new SQLiteBlobTooBigException("Row too big to fit into CursorWindow"
+                        + " requiredPos=" + requiredPos + ", totalRows=" + countedRows);
             }
         } catch (RuntimeException ex) {
             // Close the cursor window if the query failed and therefore will
@@ -266,19 +295,4 @@ public class SQLiteCursor extends AbstractWindowedCursor {
     public void setSelectionArguments(String[] selectionArgs) {
         mDriver.setBindArguments(selectionArgs);
     }
-
-    /**
-     * Release the native resources, if they haven't been released yet.
-     */
-    @Override
-    protected void finalize() {
-        try {
-            // if the cursor hasn't been closed yet, close it first
-            if (mWindow != null) {
-                close();
-            }
-        } finally {
-            super.finalize();
-        }
-    }
 }
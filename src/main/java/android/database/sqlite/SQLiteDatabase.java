@@ -20,6 +20,7 @@
 
 package android.database.sqlite;
 
+import android.content.ComponentCallbacks2;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.DatabaseErrorHandler;
@@ -33,6 +34,7 @@ import android.os.OperationCanceledException;
 import android.text.TextUtils;
 import android.util.EventLog;
 import android.util.Log;
+import android.util.LruCache;
 import android.util.Pair;
 import android.util.Printer;
 
@@ -41,6 +43,7 @@ import android.database.sqlite.CloseGuard;
 import java.io.File;
 import java.io.FileFilter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
@@ -131,6 +134,13 @@ public final class SQLiteDatabase extends SQLiteClosable {
     // INVARIANT: Guarded by mLock.
     private boolean mHasAttachedDbsLocked;
 
+    // The SQL generated by insertBatch() and updateBatch(), so it is only built once
+    // for each table, set of columns and conflict algorithm.  The cache is thread-safe.
+    private final LruCache<BatchSqlKey, String> mBatchSqlCache =
+            new LruCache<BatchSqlKey, String>(MAX_BATCH_SQL_CACHE_SIZE);
+
+    private static final int MAX_BATCH_SQL_CACHE_SIZE = 32;
+
     /**
      * When a constraint violation occurs, an immediate ROLLBACK occurs,
      * thus ending the current transaction, and the command aborts with a
@@ -1587,6 +1597,118 @@ public final class SQLiteDatabase extends SQLiteClosable {
         }
     }
 
+    /**
+     * Inserts many rows into the database with one statement, prepared once and executed for
+     * each row.  Unless a transaction is in progress the rows are inserted in a transaction
+     * of their own, so all or none of them are.
+     *
+     * @param table the table to insert the rows into
+     * @param columns the columns to set, which must not be empty
+     * @param rows the values of each row, in the order of {@code columns}
+     * @param conflictAlgorithm for insert conflict resolver
+     * @return the row ID of each newly inserted row
+     * @throws SQLException if the rows could not be inserted
+     */
+    public long[] insertBatch(String table, String[] columns, Object[][] rows,
+            int conflictAlgorithm) {
+        if (columns == null || columns.length == 0) {
+            throw new IllegalArgumentException("Empty columns");
+        }
+
+        acquireReference();
+        try {
+            SQLiteStatement statement = new SQLiteStatement(this,
+                    getBatchSql(false, table, columns, null, conflictAlgorithm), null);
+            try {
+                return statement.executeInsertBatch(rows);
+            } finally {
+                statement.close();
+            }
+        } finally {
+            releaseReference();
+        }
+    }
+
+    /**
+     * Updates rows in the database many times with one statement, prepared once and
+     * executed for each row of arguments.  Unless a transaction is in progress the updates
+     * run in a transaction of their own, so all or none of them are made.
+     *
+     * @param table the table to update in
+     * @param columns the columns to set, which must not be empty
+     * @param whereClause the optional WHERE clause to apply when updating.
+     *            Passing null will update all rows.
+     * @param rows the arguments of each update: the new values in the order of
+     *            {@code columns}, followed by the arguments of the WHERE clause
+     * @param conflictAlgorithm for update conflict resolver
+     * @return the number of rows affected by each update
+     * @throws SQLException if the rows could not be updated
+     */
+    public long[] updateBatch(String table, String[] columns, String whereClause,
+            Object[][] rows, int conflictAlgorithm) {
+        if (columns == null || columns.length == 0) {
+            throw new IllegalArgumentException("Empty columns");
+        }
+
+        acquireReference();
+        try {
+            SQLiteStatement statement = new SQLiteStatement(this,
+                    getBatchSql(true, table, columns, whereClause, conflictAlgorithm), null);
+            try {
+                return statement.executeUpdateDeleteBatch(rows);
+            } finally {
+                statement.close();
+            }
+        } finally {
+            releaseReference();
+        }
+    }
+
+    private String getBatchSql(boolean update, String table, String[] columns,
+            String whereClause, int conflictAlgorithm) {
+        final BatchSqlKey key = new BatchSqlKey(update, table, columns, whereClause,
+                conflictAlgorithm);
+        String sql = mBatchSqlCache.get(key);
+        if (sql != null) {
+            return sql;
+        }
+
+        StringBuilder builder = new StringBuilder(120);
+        if (update) {
+            builder.append("UPDATE ");
+            builder.append(CONFLICT_VALUES[conflictAlgorithm]);
+            builder.append(table);
+            builder.append(" SET ");
+            for (int i = 0; i < columns.length; i++) {
+                builder.append((i > 0) ? "," : "");
+                builder.append(columns[i]);
+                builder.append("=?");
+            }
+            if (!TextUtils.isEmpty(whereClause)) {
+                builder.append(" WHERE ");
+                builder.append(whereClause);
+            }
+        } else {
+            builder.append("INSERT");
+            builder.append(CONFLICT_VALUES[conflictAlgorithm]);
+            builder.append(" INTO ");
+            builder.append(table);
+            builder.append('(');
+            for (int i = 0; i < columns.length; i++) {
+                builder.append((i > 0) ? "," : "");
+                builder.append(columns[i]);
+            }
+            builder.append(") VALUES (");
+            for (int i = 0; i < columns.length; i++) {
+                builder.append((i > 0) ? ",?" : "?");
+            }
+            builder.append(')');
+        }
+        sql = builder.toString();
+        mBatchSqlCache.put(key.copy(), sql);
+        return sql;
+    }
+
     /**
      * Execute a single SQL statement that is NOT a SELECT
      * or any other SQL statement that returns data.
@@ -2047,6 +2169,51 @@ public final class SQLiteDatabase extends SQLiteClosable {
         }
     }
 
+    /**
+     * Collect connection pool statistics about all open databases in the current process.
+     */
+    static ArrayList<SQLiteDebug.PoolStats> getPoolStats() {
+        ArrayList<SQLiteDebug.PoolStats> poolStatsList = new ArrayList<SQLiteDebug.PoolStats>();
+        for (SQLiteDatabase db : getActiveDatabases()) {
+            db.collectPoolStats(poolStatsList);
+        }
+        return poolStatsList;
+    }
+
+    private void collectPoolStats(ArrayList<SQLiteDebug.PoolStats> poolStatsList) {
+        synchronized (mLock) {
+            if (mConnectionPoolLocked != null) {
+                mConnectionPoolLocked.collectPoolStats(poolStatsList);
+            }
+        }
+    }
+
+    /**
+     * Releases memory held by the caches and idle connections of all open databases in the
+     * current process, more of it the higher the trim level.
+     *
+     * @param level One of the {@code TRIM_MEMORY_RUNNING_*} levels of
+     * {@link android.content.ComponentCallbacks2}.
+     */
+    static void trimMemory(int level) {
+        for (SQLiteDatabase db : getActiveDatabases()) {
+            db.onTrimMemory(level);
+        }
+    }
+
+    private void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mBatchSqlCache.evictAll();
+        }
+        final SQLiteConnectionPool pool;
+        synchronized (mLock) {
+            pool = mConnectionPoolLocked;
+        }
+        if (pool != null) {
+            pool.trimMemory(level);
+        }
+    }
+
     private static ArrayList<SQLiteDatabase> getActiveDatabases() {
         ArrayList<SQLiteDatabase> databases = new ArrayList<SQLiteDatabase>();
         synchronized (sActiveDatabases) {
@@ -2220,4 +2387,53 @@ public final class SQLiteDatabase extends SQLiteClosable {
     public void enableLocalizedCollators() {
       mConnectionPoolLocked.enableLocalizedCollators();
     }
+
+    /**
+     * Identifies the SQL generated by insertBatch() or updateBatch().
+     */
+    private static final class BatchSqlKey {
+        private final boolean mUpdate;
+        private final String mTable;
+        private final String[] mColumns;
+        private final String mWhereClause;
+        private final int mConflictAlgorithm;
+
+        BatchSqlKey(boolean update, String table, String[] columns, String whereClause,
+                int conflictAlgorithm) {
+            mUpdate = update;
+            mTable = table;
+            mColumns = columns;
+            mWhereClause = whereClause;
+            mConflictAlgorithm = conflictAlgorithm;
+        }
+
+        // The key to cache, which must not share the columns array of the caller.
+        BatchSqlKey copy() {
+            return new BatchSqlKey(mUpdate, mTable, mColumns.clone(), mWhereClause,
+                    mConflictAlgorithm);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof BatchSqlKey)) {
+                return false;
+            }
+            BatchSqlKey other = (BatchSqlKey) o;
+            return mUpdate == other.mUpdate
+                    && mConflictAlgorithm == other.mConflictAlgorithm
+                    && mTable.equals(other.mTable)
+                    && Arrays.equals(mColumns, other.mColumns)
+                    && (mWhereClause == null ? other.mWhereClause == null
+                            : mWhereClause.equals(other.mWhereClause));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mTable.hashCode();
+            result = 31 * result + Arrays.hashCode(mColumns);
+            result = 31 * result + (mWhereClause != null ? mWhereClause.hashCode() : 0);
+            result = 31 * result + mConflictAlgorithm;
+            return 31 * result + (mUpdate ? 1 : 0);
+        }
+    }
 }
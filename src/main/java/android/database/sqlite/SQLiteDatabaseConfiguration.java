@@ -69,7 +69,7 @@ public final class SQLiteDatabaseConfiguration {
      * The maximum size of the prepared statement cache for each database connection.
      * Must be non-negative.
      *
-     * Default is 25.
+     * Default is the value returned by {@link SQLiteGlobal#getDefaultSqlCacheSize(String)}.
      */
     public int maxSqlCacheSize;
 
@@ -110,7 +110,7 @@ public final class SQLiteDatabaseConfiguration {
         this.openFlags = openFlags;
 
         // Set default values for optional parameters.
-        maxSqlCacheSize = 25;
+        maxSqlCacheSize = SQLiteGlobal.getDefaultSqlCacheSize(path);
         locale = Locale.getDefault();
     }
 
@@ -139,14 +139,208 @@ public final class SQLiteDebug {
         /** statement cache stats: hits/misses/cachesize */
         public String cache;
 
+        /** number of statements executed from the prepared statement cache */
+        public int cacheHits;
+
+        /** number of statements that had to be prepared because they were not cached */
+        public int cacheMisses;
+
+        /** number of cached statements finalized to make room for others */
+        public int cacheEvictions;
+
+        /** number of statements in the prepared statement cache */
+        public int cacheSize;
+
+        /** maximum number of statements in the prepared statement cache */
+        public int cacheMaxSize;
+
         public DbStats(String dbName, long pageCount, long pageSize, int lookaside,
             int hits, int misses, int cachesize) {
+            this(dbName, pageCount, pageSize, lookaside, hits, misses, cachesize, 0, 0);
+        }
+
+        public DbStats(String dbName, long pageCount, long pageSize, int lookaside,
+            int hits, int misses, int cachesize, int evictions, int maxCachesize) {
             this.dbName = dbName;
             this.pageSize = pageSize / 1024;
             dbSize = (pageCount * pageSize) / 1024;
             this.lookaside = lookaside;
             this.cache = hits + "/" + misses + "/" + cachesize;
+            this.cacheHits = hits;
+            this.cacheMisses = misses;
+            this.cacheEvictions = evictions;
+            this.cacheSize = cachesize;
+            this.cacheMaxSize = maxCachesize;
+        }
+    }
+
+    /**
+     * Contains statistics about the connection pool of a database.
+     */
+    public static class PoolStats {
+        /**
+         * The number of buckets in {@link #acquireLatencyHistogram}. The first counts the
+         * connections acquired in under 1 ms, bucket i those that took from 2^(i-1) up to
+         * 2^i ms, and the last one everything slower.
+         */
+        public static final int LATENCY_BUCKETS = 17;
+
+        /** name of the database */
+        public String dbName;
+
+        /** maximum number of connections the pool may open */
+        public int maxConnections;
+
+        /** number of connections open, available or acquired */
+        public int openConnections;
+
+        /** number of connections acquired by sessions */
+        public int acquiredConnections;
+
+        /** number of threads waiting for a connection */
+        public int waiters;
+
+        /** largest number of threads that have waited for a connection at once */
+        public int maxWaiters;
+
+        /** number of connections acquired */
+        public long acquireCount;
+
+        /** number of acquisitions that had to wait for a connection to be released */
+        public long waitCount;
+
+        /** total time spent waiting for a connection, in milliseconds */
+        public long totalWaitMillis;
+
+        /** longest wait for a connection, in milliseconds */
+        public long maxWaitMillis;
+
+        /** number of acquisitions by the time they took, see {@link #LATENCY_BUCKETS} */
+        public long[] acquireLatencyHistogram;
+
+        /** the ids of the open connections */
+        public int[] connectionIds;
+
+        /** the fraction of its lifetime each of the {@link #connectionIds} has been acquired */
+        public double[] connectionUtilization;
+
+        static int getLatencyBucket(long nanos) {
+            final long millis = nanos / 1000000L;
+            return Math.min(64 - Long.numberOfLeadingZeros(millis), LATENCY_BUCKETS - 1);
+        }
+    }
+
+    /**
+     * Returns the connection pool statistics of every open database.
+     * @return a list of {@link PoolStats}
+     */
+    public static ArrayList<PoolStats> getPoolStats() {
+        return SQLiteDatabase.getPoolStats();
+    }
+
+    /**
+     * A statement that took at least the slow query threshold configured for its database,
+     * aggregated over every execution that did.
+     */
+    public static class SlowQuery {
+        /** name of the database */
+        public final String dbName;
+
+        /** the SQL of the statement, with its parameters unbound */
+        public final String sql;
+
+        /** the types of the arguments bound to the slowest execution, such as TEXT or BLOB[16] */
+        public String bindArgTypes;
+
+        /** number of executions that were slow */
+        public int count;
+
+        /** total time taken by the slow executions, in milliseconds */
+        public long totalMillis;
+
+        /** time taken by the slowest execution, in milliseconds */
+        public long maxMillis;
+
+        /** rows stepped or changed by the slowest execution, or -1 if not known */
+        public long rows;
+
+        /** the output of EXPLAIN QUERY PLAN, captured the first time the statement was slow */
+        public String queryPlan;
+
+        SlowQuery(String dbName, String sql) {
+            this.dbName = dbName;
+            this.sql = sql;
         }
+
+        SlowQuery(SlowQuery other) {
+            this(other.dbName, other.sql);
+            bindArgTypes = other.bindArgTypes;
+            count = other.count;
+            totalMillis = other.totalMillis;
+            maxMillis = other.maxMillis;
+            rows = other.rows;
+            queryPlan = other.queryPlan;
+        }
+    }
+
+    /**
+     * Returns the statements that were slow on the databases with a slow query threshold,
+     * the slowest first.
+     * @return a list of {@link SlowQuery}
+     */
+    public static ArrayList<SlowQuery> getSlowQueries() {
+        return SQLiteSlowQueryLog.snapshot();
+    }
+
+    /**
+     * Forgets the slow statements recorded so far.
+     */
+    public static void resetSlowQueries() {
+        SQLiteSlowQueryLog.reset();
+    }
+
+    /**
+     * Counts the objects that became unreachable without being closed.
+     */
+    public static class LeakStats {
+        /** number of cursor windows leaked while cursor window leak tracking was enabled */
+        public long cursorWindows;
+
+        /** number of connections leaked, each of them closed by the leak tracker */
+        public long connections;
+
+        /** number of connection pools leaked */
+        public long connectionPools;
+    }
+
+    /**
+     * Returns the number of cursor windows, connections and connection pools leaked so far.
+     * @return {@link LeakStats}
+     */
+    public static LeakStats getLeakStats() {
+        LeakStats stats = new LeakStats();
+        stats.cursorWindows = SQLiteLeakTracker.getLeakCount(SQLiteLeakTracker.CURSOR_WINDOW);
+        stats.connections = SQLiteLeakTracker.getLeakCount(SQLiteLeakTracker.CONNECTION);
+        stats.connectionPools = SQLiteLeakTracker.getLeakCount(SQLiteLeakTracker.CONNECTION_POOL);
+        return stats;
+    }
+
+    /**
+     * Enables counting the cursor windows that are leaked, and reporting where they were
+     * allocated when {@link CloseGuard} is enabled.  Only the windows created while it is
+     * enabled are tracked.  It is off by default since a window is created for every query.
+     */
+    public static void setCursorWindowLeakTrackingEnabled(boolean enabled) {
+        SQLiteLeakTracker.setCursorWindowTrackingEnabled(enabled);
+    }
+
+    /**
+     * Returns the statistics of each connection of every open database, including
+     * its prepared statement cache counters.
+     * @return a list of {@link DbStats}
+     */
+    public static ArrayList<DbStats> getDbStats() {
+        return SQLiteDatabase.getDbStats();
     }
 
     /**
@@ -0,0 +1,117 @@
+package android.database.sqlite;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder events for the work done by the database connections, so persistence can
+ * be profiled in production by recording with JFR. All of them are disabled unless a recording
+ * enables them, and callers check {@code TYPE.isEnabled()} before creating one.
+ */
+final class SQLiteEvents {
+    private static final String CATEGORY = "SQLite";
+
+    private SQLiteEvents() {
+    }
+
+    @Name("android.database.sqlite.Prepare")
+    @Label("SQLite Prepare")
+    @Description("Compiles a statement that was not in the connection's prepared statement cache")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class Prepare extends Event {
+        static final EventType TYPE = EventType.getEventType(Prepare.class);
+
+        @Label("Database")
+        String database;
+
+        @Label("SQL")
+        String sql;
+    }
+
+    @Name("android.database.sqlite.Execute")
+    @Label("SQLite Execute")
+    @Description("Binds and steps a statement on a connection")
+    @Category(CATEGORY)
+    static final class Execute extends Event {
+        static final EventType TYPE = EventType.getEventType(Execute.class);
+
+        @Label("Database")
+        String database;
+
+        @Label("Kind")
+        String kind;
+
+        @Label("SQL")
+        String sql;
+
+        @Label("Failed")
+        boolean failed;
+    }
+
+    @Name("android.database.sqlite.CursorWindowFill")
+    @Label("SQLite Cursor Window Fill")
+    @Description("Steps a query and copies its rows into a cursor window")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class CursorWindowFill extends Event {
+        static final EventType TYPE = EventType.getEventType(CursorWindowFill.class);
+
+        @Label("Database")
+        String database;
+
+        @Label("SQL")
+        String sql;
+
+        @Label("Start Position")
+        int startPos;
+
+        @Label("Rows Copied")
+        int rows;
+
+        @Label("Rows Counted")
+        int countedRows;
+    }
+
+    @Name("android.database.sqlite.Transaction")
+    @Label("SQLite Transaction")
+    @Description("An outermost transaction, from BEGIN to COMMIT or ROLLBACK")
+    @Category(CATEGORY)
+    static final class Transaction extends Event {
+        static final EventType TYPE = EventType.getEventType(Transaction.class);
+
+        @Label("Database")
+        String database;
+
+        @Label("Mode")
+        String mode;
+
+        @Label("Committed")
+        boolean committed;
+    }
+
+    @Name("android.database.sqlite.PoolWait")
+    @Label("SQLite Connection Pool Wait")
+    @Description("A thread waiting for the connection pool to grant it a connection")
+    @Category(CATEGORY)
+    static final class PoolWait extends Event {
+        static final EventType TYPE = EventType.getEventType(PoolWait.class);
+
+        @Label("Database")
+        String database;
+
+        @Label("Primary Connection")
+        boolean primary;
+
+        @Label("SQL")
+        String sql;
+
+        @Label("Granted")
+        boolean granted;
+    }
+}
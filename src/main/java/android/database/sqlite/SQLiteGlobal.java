@@ -20,8 +20,12 @@
 
 package android.database.sqlite;
 
+import android.content.ComponentCallbacks2;
 import android.content.res.Resources;
-import android.os.StatFs;
+
+import com.google.firebase.FirebasePlatform;
+import com.google.firebase.MemoryPressureMonitor;
+import com.google.firebase.StorageProfile;
 
 /**
  * Provides access to SQLite functions that affect all database connection,
@@ -40,50 +44,79 @@ import android.os.StatFs;
 public final class SQLiteGlobal {
     private static final String TAG = "SQLiteGlobal";
 
-    private static final Object sLock = new Object();
-    private static int sDefaultPageSize;
+    static {
+        // Trim the idle connections of every database when the heap is under pressure.
+        MemoryPressureMonitor.register(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                SQLiteDatabase.trimMemory(level);
+            }
 
-    private static native int nativeReleaseMemory();
+            @Override
+            public void onLowMemory() {
+            }
+        });
+    }
 
     private SQLiteGlobal() {
     }
 
     /**
      * Attempts to release memory by pruning the SQLite page cache and other
-     * internal data structures.
+     * internal data structures of the connections that are not in use.
      *
-     * @return The number of bytes that were freed.
+     * @return Always 0, the connections don't report how many bytes they freed.
      */
     public static int releaseMemory() {
-        return nativeReleaseMemory();
+        SQLiteDatabase.trimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL);
+        return 0;
     }
 
     /**
-     * Gets the default page size to use when creating a database.
+     * Gets the page size, cache size, memory-mapped I/O size, temporary storage and journal
+     * size limit of connections to the database at the given path, as configured by the
+     * {@link FirebasePlatform}.
      */
-    public static int getDefaultPageSize() {
-        synchronized (sLock) {
-            if (sDefaultPageSize == 0) {
-                // If there is an issue accessing /data, something is so seriously
-                // wrong that we just let the IllegalArgumentException propagate.
-                sDefaultPageSize = new StatFs("/data").getBlockSize();
-            }
-            return 1024;
-        }
+    public static StorageProfile getStorageProfile(String path) {
+        final FirebasePlatform platform = FirebasePlatform.firebasePlatform;
+        return platform != null ? platform.getStorageProfile(path) : StorageProfile.auto(path);
     }
 
     /**
-     * Gets the default journal mode when WAL is not in use.
+     * Gets the default size of the prepared statement cache of each connection
+     * to the database at the given path, as configured by the {@link FirebasePlatform}.
      */
-    public static String getDefaultJournalMode() {
-        return "delete";
+    public static int getDefaultSqlCacheSize(String path) {
+        final FirebasePlatform platform = FirebasePlatform.firebasePlatform;
+        final int value = platform != null ? platform.getSqlCacheSize(path) : 25;
+        return Math.max(0, Math.min(value, SQLiteDatabase.MAX_SQL_CACHE_SIZE));
     }
 
     /**
-     * Gets the journal size limit in bytes.
+     * Gets the time in milliseconds from which statements on the database at the given path
+     * are recorded in the slow query log, or a negative value if they are not, as configured
+     * by the {@link FirebasePlatform}.
      */
-    public static int getJournalSizeLimit() {
-        return 10000;
+    public static long getSlowQueryThresholdMillis(String path) {
+        final FirebasePlatform platform = FirebasePlatform.firebasePlatform;
+        return platform != null ? platform.getSlowQueryThresholdMillis(path) : -1;
+    }
+
+    /**
+     * Returns true if the database with the given name, opened through a
+     * {@link SQLiteOpenHelper}, uses write-ahead logging unless the helper is told
+     * otherwise, as configured by the {@link FirebasePlatform}.
+     */
+    public static boolean isWriteAheadLoggingDefault(String name) {
+        final FirebasePlatform platform = FirebasePlatform.firebasePlatform;
+        return platform == null || platform.isWriteAheadLoggingEnabled(name);
+    }
+
+    /**
+     * Gets the default journal mode when WAL is not in use.
+     */
+    public static String getDefaultJournalMode() {
+        return "delete";
     }
 
     /**
@@ -0,0 +1,117 @@
+package android.database.sqlite;
+
+import android.util.Log;
+
+import java.lang.ref.Cleaner;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Releases the cursor windows, connections and connection pools that become unreachable
+ * without being closed, and counts them for {@link SQLiteDebug#getLeakStats()}.
+ * <p>
+ * It uses a {@link Cleaner} rather than finalizers, which slow down allocation and keep every
+ * object alive for an extra garbage collection.  Connections and pools are always tracked since
+ * a leaked connection must still close its native database.  Cursor windows hold no native
+ * resources, one is created for every query, so they are only tracked while
+ * {@link SQLiteDebug#setCursorWindowLeakTrackingEnabled(boolean)} is on.
+ * </p><p>
+ * The allocation site of a leaked object is reported through {@link CloseGuard} when it is
+ * enabled.
+ * </p>
+ *
+ * @hide
+ */
+public final class SQLiteLeakTracker {
+    private static final String TAG = "SQLiteLeakTracker";
+
+    public static final int CURSOR_WINDOW = 0;
+    public static final int CONNECTION = 1;
+    public static final int CONNECTION_POOL = 2;
+
+    private static final Cleaner sCleaner = Cleaner.create(runnable -> {
+        Thread thread = new Thread(runnable, TAG);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final AtomicLongArray sLeaks = new AtomicLongArray(3);
+
+    private static volatile boolean sCursorWindowTrackingEnabled;
+
+    private SQLiteLeakTracker() {
+    }
+
+    static void setCursorWindowTrackingEnabled(boolean enabled) {
+        sCursorWindowTrackingEnabled = enabled;
+    }
+
+    public static boolean isCursorWindowTrackingEnabled() {
+        return sCursorWindowTrackingEnabled;
+    }
+
+    static long getLeakCount(int kind) {
+        return sLeaks.get(kind);
+    }
+
+    /**
+     * Tracks the owner until the returned handle is closed.  If the owner becomes unreachable
+     * first the leak is counted and reported, then {@code release} runs on the cleaner thread.
+     *
+     * @param owner The object to track.
+     * @param kind The kind of object, {@link #CURSOR_WINDOW}, {@link #CONNECTION} or
+     * {@link #CONNECTION_POOL}.
+     * @param closer The name of the method that should have been called to close it.
+     * @param release Releases the resources of the owner when it is leaked, or null if none.
+     * It must not reference the owner, or the owner will never become unreachable.
+     * @return The handle to close when the owner is closed.
+     */
+    public static Handle track(Object owner, int kind, String closer, Runnable release) {
+        final CloseGuard guard = CloseGuard.get();
+        guard.open(closer);
+        final Handle handle = new Handle(kind, guard, release);
+        handle.mCleanable = sCleaner.register(owner, handle);
+        return handle;
+    }
+
+    /**
+     * The tracking of an object, closed by the object when it is closed.
+     */
+    public static final class Handle implements Runnable {
+        private final int mKind;
+        private final CloseGuard mGuard;
+        private final Runnable mRelease;
+        private Cleaner.Cleanable mCleanable;
+        private volatile boolean mClosed;
+
+        private Handle(int kind, CloseGuard guard, Runnable release) {
+            mKind = kind;
+            mGuard = guard;
+            mRelease = release;
+        }
+
+        /**
+         * Stops tracking the owner, which released its resources itself.
+         */
+        public void close() {
+            mClosed = true;
+            mGuard.close();
+            mCleanable.clean();
+        }
+
+        @Override
+        public void run() {
+            if (mClosed) {
+                return;
+            }
+            sLeaks.incrementAndGet(mKind);
+            mGuard.warnIfOpen();
+            if (mRelease != null) {
+                try {
+                    mRelease.run();
+                } catch (RuntimeException ex) {
+                    Log.e(TAG, "Failed to release a leaked object.", ex);
+                }
+            }
+        }
+    }
+}
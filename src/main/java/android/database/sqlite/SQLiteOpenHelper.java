@@ -139,6 +139,7 @@ public abstract class SQLiteOpenHelper {
         mNewVersion = version;
         mErrorHandler = errorHandler;
         mMinimumSupportedVersion = Math.max(0, minimumSupportedVersion);
+        mEnableWriteAheadLogging = name != null && SQLiteGlobal.isWriteAheadLoggingDefault(name);
     }
 
     /**
@@ -259,9 +260,11 @@ public abstract class SQLiteOpenHelper {
                         db = SQLiteDatabase.openDatabase(path, mFactory,
                                 SQLiteDatabase.OPEN_READONLY, mErrorHandler);
                     } else {
-                        db = SQLiteDatabase.openOrCreateDatabase(
-                            path, mFactory, mErrorHandler
-                        );
+                        db = SQLiteDatabase.openDatabase(path, mFactory,
+                                SQLiteDatabase.CREATE_IF_NECESSARY
+                                        | (mEnableWriteAheadLogging
+                                                ? SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING : 0),
+                                mErrorHandler);
                     }
                 } catch (SQLiteException ex) {
                     if (writable) {
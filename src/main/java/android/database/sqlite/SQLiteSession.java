@@ -172,6 +172,7 @@ public final class SQLiteSession {
     private int mConnectionUseCount;
     private Transaction mTransactionPool;
     private Transaction mTransactionStack;
+    private SQLiteEvents.Transaction mTransactionEvent; // spans the outermost transaction
 
     /**
      * Transaction mode: Deferred.
@@ -317,6 +318,8 @@ public final class SQLiteSession {
             // Set up the transaction such that we can back out safely
             // in case we fail part way.
             if (mTransactionStack == null) {
+                beginTransactionEvent(transactionMode);
+
                 // Execute SQL might throw a runtime exception.
                 switch (transactionMode) {
                     case TRANSACTION_MODE_IMMEDIATE:
@@ -436,13 +439,16 @@ public final class SQLiteSession {
                 mTransactionStack.mChildFailed = true;
             }
         } else {
+            boolean committed = false;
             try {
                 if (successful) {
                     mConnection.execute("COMMIT;", null, cancellationSignal); // might throw
+                    committed = true;
                 } else {
                     mConnection.execute("ROLLBACK;", null, cancellationSignal); // might throw
                 }
             } finally {
+                commitTransactionEvent(committed);
                 releaseConnection(); // might throw
             }
         }
@@ -692,6 +698,39 @@ public final class SQLiteSession {
         }
     }
 
+    /**
+     * Executes a statement that returns a single <code>byte[]</code> result.
+     *
+     * @param sql The SQL statement to execute.
+     * @param bindArgs The arguments to bind, or null if none.
+     * @param connectionFlags The connection flags to use if a connection must be
+     * acquired by this operation.  Refer to {@link SQLiteConnectionPool}.
+     * @param cancellationSignal A signal to cancel the operation in progress, or null if none.
+     * @return The value of the first column in the first row of the result set
+     * as a <code>byte[]</code>, or null if none.
+     *
+     * @throws SQLiteException if an error occurs, such as a syntax error
+     * or invalid number of bind arguments.
+     * @throws OperationCanceledException if the operation was canceled.
+     */
+    public byte[] executeForBlob(String sql, Object[] bindArgs, int connectionFlags,
+            CancellationSignal cancellationSignal) {
+        if (sql == null) {
+            throw new IllegalArgumentException("sql must not be null.");
+        }
+
+        if (executeSpecial(sql, bindArgs, connectionFlags, cancellationSignal)) {
+            return null;
+        }
+
+        acquireConnection(sql, connectionFlags, cancellationSignal); // might throw
+        try {
+            return mConnection.executeForBlob(sql, bindArgs, cancellationSignal); // might throw
+        } finally {
+            releaseConnection(); // might throw
+        }
+    }
+
     /**
      * Executes a statement that returns a single BLOB result as a
      * file descriptor to a shared memory region.
@@ -796,6 +835,58 @@ public final class SQLiteSession {
         }
     }
 
+    /**
+     * Executes a statement once for each row of arguments, preparing it only once.
+     * <p>
+     * Unless the session already has a transaction in progress, the executions run in a
+     * transaction of their own so that the rows are written at once and all or none of
+     * them are.
+     * </p>
+     *
+     * @param sql The SQL statement to execute.
+     * @param bindArgs The arguments to bind for each execution.
+     * @param returnRowIds True to return the row id of the row inserted by each execution,
+     * false to return the number of rows it changed.
+     * @param connectionFlags The connection flags to use if a connection must be
+     * acquired by this operation.  Refer to {@link SQLiteConnectionPool}.
+     * @param cancellationSignal A signal to cancel the operation in progress, or null if none.
+     * @return The row id or the number of rows changed of each execution.
+     *
+     * @throws SQLiteException if an error occurs, such as a syntax error
+     * or invalid number of bind arguments.
+     * @throws OperationCanceledException if the operation was canceled.
+     */
+    public long[] executeBatch(String sql, Object[][] bindArgs, boolean returnRowIds,
+            int connectionFlags, CancellationSignal cancellationSignal) {
+        if (sql == null) {
+            throw new IllegalArgumentException("sql must not be null.");
+        }
+
+        final boolean implicitTransaction = mTransactionStack == null;
+        if (implicitTransaction) {
+            beginTransactionUnchecked(TRANSACTION_MODE_IMMEDIATE, null, connectionFlags,
+                    cancellationSignal); // might throw
+        }
+        try {
+            final long[] results;
+            acquireConnection(sql, connectionFlags, cancellationSignal); // might throw
+            try {
+                results = mConnection.executeBatch(sql, bindArgs, returnRowIds,
+                        cancellationSignal); // might throw
+            } finally {
+                releaseConnection(); // might throw
+            }
+            if (implicitTransaction) {
+                setTransactionSuccessful();
+            }
+            return results;
+        } finally {
+            if (implicitTransaction) {
+                endTransactionUnchecked(cancellationSignal, false); // might throw
+            }
+        }
+    }
+
     /**
      * Executes a statement and populates the specified {@link CursorWindow}
      * with a range of results.  Returns the number of rows that were counted
@@ -936,6 +1027,27 @@ public final class SQLiteSession {
         }
     }
 
+    private void beginTransactionEvent(int transactionMode) {
+        mTransactionEvent = null;
+        if (SQLiteEvents.Transaction.TYPE.isEnabled()) {
+            final SQLiteEvents.Transaction event = new SQLiteEvents.Transaction();
+            event.begin();
+            event.database = mConnection.getLabel();
+            event.mode = transactionMode == TRANSACTION_MODE_IMMEDIATE ? "IMMEDIATE"
+                    : transactionMode == TRANSACTION_MODE_EXCLUSIVE ? "EXCLUSIVE" : "DEFERRED";
+            mTransactionEvent = event;
+        }
+    }
+
+    private void commitTransactionEvent(boolean committed) {
+        final SQLiteEvents.Transaction event = mTransactionEvent;
+        if (event != null) {
+            mTransactionEvent = null;
+            event.committed = committed;
+            event.commit();
+        }
+    }
+
     private Transaction obtainTransaction(int mode, SQLiteTransactionListener listener) {
         Transaction transaction = mTransactionPool;
         if (transaction != null) {
@@ -0,0 +1,98 @@
+package android.database.sqlite;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Aggregates the slow statements of every database in the process by database and SQL,
+ * for {@link SQLiteDebug#getSlowQueries()}.
+ */
+final class SQLiteSlowQueryLog {
+    // Keeps a runaway stream of distinct statements from growing the log without bound.
+    private static final int MAX_STATEMENTS = 256;
+
+    private static final HashMap<String, SQLiteDebug.SlowQuery> sQueries = new HashMap<>();
+
+    private SQLiteSlowQueryLog() {
+    }
+
+    /**
+     * Records a slow execution of the statement, returning true if its query plan should be
+     * captured because this is the first time it was slow.
+     */
+    static boolean record(String label, String sql, Object[] bindArgs, long rows,
+            long elapsedMillis) {
+        synchronized (sQueries) {
+            final String key = label + '\0' + sql;
+            SQLiteDebug.SlowQuery query = sQueries.get(key);
+            final boolean first = query == null;
+            if (first) {
+                if (sQueries.size() >= MAX_STATEMENTS) {
+                    return false;
+                }
+                query = new SQLiteDebug.SlowQuery(label, sql);
+                sQueries.put(key, query);
+            }
+            query.count += 1;
+            query.totalMillis += elapsedMillis;
+            if (first || elapsedMillis >= query.maxMillis) {
+                query.maxMillis = elapsedMillis;
+                query.rows = rows;
+                query.bindArgTypes = describeBindArgs(bindArgs);
+            }
+            return first;
+        }
+    }
+
+    static void setQueryPlan(String label, String sql, String queryPlan) {
+        synchronized (sQueries) {
+            final SQLiteDebug.SlowQuery query = sQueries.get(label + '\0' + sql);
+            if (query != null) {
+                query.queryPlan = queryPlan;
+            }
+        }
+    }
+
+    static ArrayList<SQLiteDebug.SlowQuery> snapshot() {
+        final ArrayList<SQLiteDebug.SlowQuery> queries;
+        synchronized (sQueries) {
+            queries = new ArrayList<>(sQueries.size());
+            for (SQLiteDebug.SlowQuery query : sQueries.values()) {
+                queries.add(new SQLiteDebug.SlowQuery(query));
+            }
+        }
+        queries.sort((a, b) -> Long.compare(b.maxMillis, a.maxMillis));
+        return queries;
+    }
+
+    static void reset() {
+        synchronized (sQueries) {
+            sQueries.clear();
+        }
+    }
+
+    // The shape of the arguments without their values, which may be private.
+    private static String describeBindArgs(Object[] bindArgs) {
+        if (bindArgs == null || bindArgs.length == 0) {
+            return "";
+        }
+        final StringBuilder types = new StringBuilder();
+        for (Object arg : bindArgs) {
+            if (types.length() != 0) {
+                types.append(", ");
+            }
+            if (arg == null) {
+                types.append("NULL");
+            } else if (arg instanceof byte[]) {
+                types.append("BLOB[").append(((byte[]) arg).length).append(']');
+            } else if (arg instanceof String) {
+                types.append("TEXT[").append(((String) arg).length()).append(']');
+            } else if (arg instanceof Double || arg instanceof Float) {
+                types.append("REAL");
+            } else {
+                types.append("INTEGER");
+            }
+        }
+        return types.toString();
+    }
+}
@@ -97,6 +97,55 @@ public final class SQLiteStatement extends SQLiteProgram {
         }
     }
 
+    /**
+     * Execute this INSERT statement once for each row of arguments, binding them to the
+     * statement prepared once.  Unless a transaction is in progress the rows are inserted
+     * in a transaction of their own.  The arguments bound to this statement are ignored.
+     *
+     * @param bindArgs the arguments of each row to insert
+     * @return the row ID of each row inserted
+     *
+     * @throws android.database.SQLException If the SQL string is invalid for
+     *         some reason
+     */
+    public long[] executeInsertBatch(Object[][] bindArgs) {
+        acquireReference();
+        try {
+            return getSession().executeBatch(
+                    getSql(), bindArgs, true, getConnectionFlags(), null);
+        } catch (SQLiteDatabaseCorruptException ex) {
+            onCorruption();
+            throw ex;
+        } finally {
+            releaseReference();
+        }
+    }
+
+    /**
+     * Execute this UPDATE or DELETE statement once for each row of arguments, binding them to
+     * the statement prepared once.  Unless a transaction is in progress the statements are
+     * executed in a transaction of their own.  The arguments bound to this statement are
+     * ignored.
+     *
+     * @param bindArgs the arguments of each execution
+     * @return the number of rows affected by each execution
+     *
+     * @throws android.database.SQLException If the SQL string is invalid for
+     *         some reason
+     */
+    public long[] executeUpdateDeleteBatch(Object[][] bindArgs) {
+        acquireReference();
+        try {
+            return getSession().executeBatch(
+                    getSql(), bindArgs, false, getConnectionFlags(), null);
+        } catch (SQLiteDatabaseCorruptException ex) {
+            onCorruption();
+            throw ex;
+        } finally {
+            releaseReference();
+        }
+    }
+
     /**
      * Execute a statement that returns a 1 by 1 table with a numeric value.
      * For example, SELECT COUNT(*) FROM table;
@@ -160,6 +209,42 @@ public final class SQLiteStatement extends SQLiteProgram {
         }
     }
 
+    /**
+     * Executes a statement that returns a 1 by 1 table with a blob value, and streams the
+     * value in chunks of {@link SQLiteBlobInputStream#DEFAULT_CHUNK_SIZE} bytes instead of
+     * reading it into a single array.
+     *
+     * @return A stream over the value, or {@code null} if the value is null.
+     *
+     * @see SQLiteBlobInputStream
+     */
+    public SQLiteBlobInputStream simpleQueryForBlobStream() {
+        return simpleQueryForBlobStream(SQLiteBlobInputStream.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Executes a statement that returns a 1 by 1 table with a blob value, and streams the
+     * value in chunks of {@code chunkSize} bytes instead of reading it into a single array.
+     * The statement runs once for the length of the value and once for each chunk.
+     *
+     * @param chunkSize The number of bytes to read at a time.
+     * @return A stream over the value, or {@code null} if the value is null.
+     *
+     * @see SQLiteBlobInputStream
+     */
+    public SQLiteBlobInputStream simpleQueryForBlobStream(int chunkSize) {
+        acquireReference();
+        try {
+            return SQLiteBlobInputStream.open(getDatabase(), getSql(), getBindArgs(),
+                    getConnectionFlags(), chunkSize);
+        } catch (SQLiteDatabaseCorruptException ex) {
+            onCorruption();
+            throw ex;
+        } finally {
+            releaseReference();
+        }
+    }
+
     @Override
     public String toString() {
         return "SQLiteProgram: " + getSql();
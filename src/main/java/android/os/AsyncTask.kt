@@ -1,27 +1,138 @@
 package android.os
 
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.GlobalScope
-import kotlinx.coroutines.launch
-import kotlinx.coroutines.withContext
+import com.google.firebase.FirebasePlatform
 import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.RejectedExecutionHandler
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
 
 abstract class AsyncTask {
 
+    /**
+     * A snapshot of the counters of [THREAD_POOL_EXECUTOR].
+     *
+     * @property queuedTasks tasks submitted but not started yet
+     * @property activeTasks tasks currently running
+     * @property completedTasks tasks that have finished running
+     * @property overflowTasks tasks handed to the overflow thread because the queue was full
+     * @property averageQueueLatencyMillis average time a task waited before it started
+     * @property maxQueueLatencyMillis longest time a task waited before it started
+     */
+    data class ExecutorStats(
+        val queuedTasks: Int,
+        val activeTasks: Int,
+        val completedTasks: Long,
+        val overflowTasks: Long,
+        val averageQueueLatencyMillis: Double,
+        val maxQueueLatencyMillis: Long
+    )
+
     companion object {
+        private const val QUEUE_CAPACITY = 128
+        private const val KEEP_ALIVE_SECONDS = 30L
+
+        private val instrumented = InstrumentedExecutor()
+
         @JvmField
-        val THREAD_POOL_EXECUTOR = Executor {
-            GlobalScope.launch {
-                it.run()
+        val THREAD_POOL_EXECUTOR: Executor = instrumented
+
+        @JvmStatic
+        fun getThreadPoolStats(): ExecutorStats = instrumented.stats()
+
+        private val mainHandler by lazy { Handler(Looper.getMainLooper()) }
+    }
+
+    /*
+     * Runs the SDK's background work on the executor supplied by the FirebasePlatform, or else
+     * on a bounded pool of named threads, instead of sharing the host's Dispatchers.Default.
+     */
+    private class InstrumentedExecutor : Executor {
+        private val queued = AtomicInteger()
+        private val active = AtomicInteger()
+        private val completed = AtomicLong()
+        private val overflows = AtomicLong()
+        private val totalLatencyNanos = AtomicLong()
+        private val maxLatencyNanos = AtomicLong()
+
+        private val delegate: Executor by lazy {
+            val platform = FirebasePlatform.platformOrNull
+            platform?.getBackgroundExecutor() ?: createThreadPool(platform?.getBackgroundThreadCount() ?: 2)
+        }
+
+        private fun createThreadPool(threadCount: Int): Executor {
+            val threadNumber = AtomicInteger()
+            val threadFactory = ThreadFactory {
+                Thread(it, "firebase-background-${threadNumber.incrementAndGet()}").apply { isDaemon = true }
+            }
+            // Once the queue is full tasks go to a single overflow thread rather than failing or
+            // running on the submitting thread, which may hold locks or be the UI thread.
+            val overflowPolicy = RejectedExecutionHandler { task, executor ->
+                if (!executor.isShutdown) {
+                    overflows.incrementAndGet()
+                    overflow.execute(task)
+                }
             }
+            return ThreadPoolExecutor(
+                threadCount, threadCount, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                LinkedBlockingQueue(QUEUE_CAPACITY), threadFactory, overflowPolicy
+            ).apply { allowCoreThreadTimeOut(true) }
+        }
+
+        private val overflow by lazy {
+            Executors.newSingleThreadExecutor { Thread(it, "firebase-background-overflow").apply { isDaemon = true } }
+        }
+
+        override fun execute(command: Runnable) {
+            val enqueued = System.nanoTime()
+            queued.incrementAndGet()
+            try {
+                delegate.execute { run(command, enqueued) }
+            } catch (e: RuntimeException) {
+                queued.decrementAndGet()
+                throw e
+            }
+        }
+
+        private fun run(command: Runnable, enqueued: Long) {
+            val latency = System.nanoTime() - enqueued
+            queued.decrementAndGet()
+            active.incrementAndGet()
+            totalLatencyNanos.addAndGet(latency)
+            maxLatencyNanos.accumulateAndGet(latency, Math::max)
+            try {
+                command.run()
+            } finally {
+                active.decrementAndGet()
+                completed.incrementAndGet()
+            }
+        }
+
+        fun stats(): ExecutorStats {
+            val completed = completed.get()
+            val started = completed + active.get()
+            return ExecutorStats(
+                queuedTasks = queued.get(),
+                activeTasks = active.get(),
+                completedTasks = completed,
+                overflowTasks = overflows.get(),
+                averageQueueLatencyMillis = if (started == 0L) 0.0 else totalLatencyNanos.get() / started / 1e6,
+                maxQueueLatencyMillis = TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos.get())
+            )
         }
     }
 
     fun execute(vararg params: Any): AsyncTask {
-        GlobalScope.launch {
-            withContext(Dispatchers.Main) { onPreExecute() }
-            val result = doInBackground(*params)
-            withContext(Dispatchers.Main) { onPostExecute(result) }
+        mainHandler.post {
+            onPreExecute()
+            THREAD_POOL_EXECUTOR.execute {
+                val result = doInBackground(*params)
+                mainHandler.post { onPostExecute(result) }
+            }
         }
         return this
     }
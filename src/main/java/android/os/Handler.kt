@@ -1,28 +1,30 @@
 package android.os
 
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.GlobalScope
-import kotlinx.coroutines.delay
-import kotlinx.coroutines.launch
-
+/**
+ * Posts callbacks to the [MessageQueue] of a [Looper], to be run on its thread once due.
+ */
 open class Handler(looper: Looper?, callback: Handler.Callback?) {
 
     constructor(looper: Looper) : this(looper, null)
 
-    fun post(runnable: Runnable): Boolean {
-        GlobalScope.launch(Dispatchers.Main) {
-            runnable.run()
-        }
-        return true
-    }
+    constructor() : this(null, null)
 
-    fun postDelayed(runnable: Runnable, time: Long): Boolean {
-        GlobalScope.launch(Dispatchers.Main) {
-            delay(time)
-            runnable.run()
-        }
-        return true
-    }
+    private val looper: Looper = looper ?: Looper.myLooper() ?: Looper.getMainLooper()
+
+    fun getLooper(): Looper = looper
+
+    fun post(runnable: Runnable): Boolean = postAtTime(runnable, SystemClock.uptimeMillis())
+
+    fun postDelayed(runnable: Runnable, time: Long): Boolean =
+        postAtTime(runnable, SystemClock.uptimeMillis() + time.coerceAtLeast(0))
+
+    fun postDelayed(runnable: Runnable, token: Any?, time: Long): Boolean =
+        postAtTime(runnable, token, SystemClock.uptimeMillis() + time.coerceAtLeast(0))
+
+    fun postAtTime(runnable: Runnable, uptimeMillis: Long): Boolean = postAtTime(runnable, null, uptimeMillis)
+
+    fun postAtTime(runnable: Runnable, token: Any?, uptimeMillis: Long): Boolean =
+        looper.mQueue.enqueue(this, runnable, token, uptimeMillis)
 
     fun getIMessenger(): IMessenger {
         return object : IMessenger {
@@ -59,8 +61,16 @@ open class Handler(looper: Looper?, callback: Handler.Callback?) {
         fun createAsync(looper: Looper) = Handler(looper)
     }
 
-    fun removeCallbacks(r: Runnable) {
-    }
+    fun removeCallbacks(r: Runnable) = looper.mQueue.remove(this, r, null)
+
+    fun removeCallbacks(r: Runnable, token: Any?) = looper.mQueue.remove(this, r, token)
+
+    /**
+     * Removes the pending callbacks posted with [token], or all of them if it is null.
+     */
+    fun removeCallbacksAndMessages(token: Any?) = looper.mQueue.remove(this, null, token)
+
+    fun hasCallbacks(r: Runnable): Boolean = looper.mQueue.has(this, r)
 
     interface Callback
 }
@@ -1,15 +1,80 @@
 package android.os;
 
-public class HandlerThread {
-    public HandlerThread(String name, int flags) {
+/**
+ * A thread that runs a {@link Looper}, for use with a {@link Handler}.
+ */
+public class HandlerThread extends Thread {
+    private final int mPriority;
+    private Looper mLooper;
 
+    public HandlerThread(String name) {
+        this(name, 0);
     }
 
-    public void start() {
+    public HandlerThread(String name, int priority) {
+        super(name);
+        mPriority = priority;
+        // Unlike an Android process, the JVM waits for non-daemon threads before exiting.
+        setDaemon(true);
+    }
+
+    /**
+     * Called on the thread once its looper is prepared, before it starts looping.
+     */
+    protected void onLooperPrepared() {
+    }
 
+    @Override
+    public void run() {
+        Looper.prepare();
+        synchronized (this) {
+            mLooper = Looper.myLooper();
+            notifyAll();
+        }
+        Process.setThreadPriority(mPriority);
+        onLooperPrepared();
+        Looper.loop();
     }
 
+    /**
+     * Returns the looper of this thread, waiting for it to be prepared if the thread
+     * has been started, or null if the thread is not alive.
+     */
     public Looper getLooper() {
-        return new Looper();
+        if (!isAlive()) {
+            return null;
+        }
+        boolean interrupted = false;
+        synchronized (this) {
+            while (isAlive() && mLooper == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return mLooper;
+    }
+
+    public boolean quit() {
+        final Looper looper = getLooper();
+        if (looper != null) {
+            looper.quit();
+            return true;
+        }
+        return false;
+    }
+
+    public boolean quitSafely() {
+        final Looper looper = getLooper();
+        if (looper != null) {
+            looper.quitSafely();
+            return true;
+        }
+        return false;
     }
 }
@@ -1,27 +1,161 @@
 package android.os;
 
-import javax.swing.*;
+import com.google.firebase.FirebasePlatform;
 
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the callbacks posted to a {@link MessageQueue} on a single thread.
+ * <p>
+ * A thread gets a looper by calling {@link #prepare} and then {@link #loop}, which is what
+ * {@link HandlerThread} does.  The main looper either runs on a thread of its own or, when the
+ * {@link FirebasePlatform} supplies a main executor such as a UI toolkit's event thread, hands
+ * each callback to that executor once it is due.
+ * </p>
+ */
 public class Looper {
-    private static final Looper main = new Looper();
+    private static final ThreadLocal<Looper> sThreadLocal = new ThreadLocal<>();
+    private static Looper sMainLooper;
 
-    public Thread getThread() {
-        return Thread.currentThread();
+    final MessageQueue mQueue = new MessageQueue();
+
+    // Callbacks are handed to this executor instead of being run by loop(), if set.
+    private final Executor mExecutor;
+    private volatile Thread mThread;
+
+    private Looper(Thread thread, Executor executor) {
+        mThread = thread;
+        mExecutor = executor;
+    }
+
+    /**
+     * Initializes the current thread as a looper.  Call {@link #loop} afterwards
+     * to start dispatching callbacks.
+     */
+    public static void prepare() {
+        if (sThreadLocal.get() != null) {
+            throw new RuntimeException("Only one Looper may be created per thread");
+        }
+        sThreadLocal.set(new Looper(Thread.currentThread(), null));
+    }
+
+    /**
+     * Initializes the current thread as the main looper, for applications that
+     * want to run the main loop on a thread of their own.  Must be called before
+     * anything asks for {@link #getMainLooper}.
+     */
+    public static void prepareMainLooper() {
+        prepare();
+        synchronized (Looper.class) {
+            if (sMainLooper != null) {
+                throw new IllegalStateException("The main Looper has already been prepared.");
+            }
+            sMainLooper = myLooper();
+        }
     }
 
     public static Looper getMainLooper() {
-        return main;
+        synchronized (Looper.class) {
+            if (sMainLooper == null) {
+                sMainLooper = createMainLooper();
+            }
+            return sMainLooper;
+        }
     }
 
+    private static Looper createMainLooper() {
+        final FirebasePlatform platform = FirebasePlatform.firebasePlatform;
+        final Executor executor = platform != null ? platform.getMainExecutor() : null;
+        if (executor == null) {
+            final HandlerThread thread = new HandlerThread("firebase-main");
+            thread.start();
+            return thread.getLooper();
+        }
+        final Looper looper = new Looper(null, executor);
+        final Thread dispatcher = new Thread(looper::dispatchToExecutor, "firebase-main-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+        return looper;
+    }
+
+    /**
+     * Returns the looper of the current thread, or null if it is not a looper thread.
+     */
     public static Looper myLooper() {
-        return SwingUtilities.isEventDispatchThread() ? main : new Looper();
+        return sThreadLocal.get();
     }
 
-    static void prepare() {
+    /**
+     * Runs the callbacks posted to the looper of the current thread until it quits.
+     */
+    public static void loop() {
+        final Looper me = myLooper();
+        if (me == null) {
+            throw new RuntimeException("No Looper; Looper.prepare() wasn't called on this thread.");
+        }
+        for (;;) {
+            final Runnable callback = me.mQueue.next();
+            if (callback == null) {
+                return;
+            }
+            dispatch(callback);
+        }
+    }
 
+    private void dispatchToExecutor() {
+        for (;;) {
+            final Runnable callback = mQueue.next();
+            if (callback == null) {
+                return;
+            }
+            mExecutor.execute(() -> {
+                if (mThread == null) {
+                    // The executor is expected to run on a single thread, adopt it.
+                    mThread = Thread.currentThread();
+                    sThreadLocal.set(this);
+                }
+                dispatch(callback);
+            });
+        }
     }
 
-    static void loop() {
+    private static void dispatch(Runnable callback) {
+        try {
+            callback.run();
+        } catch (RuntimeException | Error e) {
+            // Don't let one callback stop the loop, report it like an uncaught exception.
+            final Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+    }
+
+    /**
+     * Returns the thread the callbacks run on, which is null for a main looper
+     * backed by an executor until it has run its first callback.
+     */
+    public Thread getThread() {
+        return mThread;
+    }
+
+    public boolean isCurrentThread() {
+        return Thread.currentThread() == mThread;
+    }
+
+    public MessageQueue getQueue() {
+        return mQueue;
+    }
+
+    /**
+     * Stops the looper, discarding the callbacks that are still pending.
+     */
+    public void quit() {
+        mQueue.quit(false);
+    }
 
+    /**
+     * Stops the looper once the callbacks that are already due have been dispatched.
+     */
+    public void quitSafely() {
+        mQueue.quit(true);
     }
 }
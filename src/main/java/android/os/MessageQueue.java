@@ -0,0 +1,133 @@
+package android.os;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * Holds the callbacks posted to the {@link Handler}s of a {@link Looper}, ordered by
+ * the time at which they are due and then by the order in which they were posted.
+ */
+public final class MessageQueue {
+    private final PriorityQueue<Entry> mEntries = new PriorityQueue<>();
+    private long mNextSequence;
+    private boolean mQuitting;
+
+    MessageQueue() {
+    }
+
+    boolean enqueue(Handler handler, Runnable callback, Object token, long uptimeMillis) {
+        synchronized (this) {
+            if (mQuitting) {
+                return false;
+            }
+            mEntries.add(new Entry(handler, callback, token, uptimeMillis, mNextSequence++));
+            notifyAll();
+            return true;
+        }
+    }
+
+    // Removes the callbacks posted by the handler that match the callback and token,
+    // a null callback or token matches any.
+    void remove(Handler handler, Runnable callback, Object token) {
+        synchronized (this) {
+            final Iterator<Entry> it = mEntries.iterator();
+            while (it.hasNext()) {
+                if (it.next().matches(handler, callback, token)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    boolean has(Handler handler, Runnable callback) {
+        synchronized (this) {
+            for (Entry entry : mEntries) {
+                if (entry.matches(handler, callback, null)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Returns true if no callback is due to be dispatched.
+     */
+    public boolean isIdle() {
+        synchronized (this) {
+            final Entry head = mEntries.peek();
+            return head == null || head.mWhen > SystemClock.uptimeMillis();
+        }
+    }
+
+    // Blocks until the next callback is due, returns null once the queue has quit.
+    Runnable next() {
+        synchronized (this) {
+            for (;;) {
+                final Entry head = mEntries.peek();
+                final long now = SystemClock.uptimeMillis();
+                if (head != null && head.mWhen <= now) {
+                    mEntries.poll();
+                    return head.mCallback;
+                }
+                if (mQuitting) {
+                    return null;
+                }
+                try {
+                    if (head == null) {
+                        wait();
+                    } else {
+                        wait(head.mWhen - now);
+                    }
+                } catch (InterruptedException e) {
+                    // Keep looping until quit() is called, as Android does.
+                }
+            }
+        }
+    }
+
+    // Stops the queue.  When safe, the callbacks that are already due are still dispatched.
+    void quit(boolean safe) {
+        synchronized (this) {
+            if (mQuitting) {
+                return;
+            }
+            mQuitting = true;
+            if (safe) {
+                final long now = SystemClock.uptimeMillis();
+                mEntries.removeIf(entry -> entry.mWhen > now);
+            } else {
+                mEntries.clear();
+            }
+            notifyAll();
+        }
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        final Handler mHandler;
+        final Runnable mCallback;
+        final Object mToken;
+        final long mWhen;
+        final long mSequence;
+
+        Entry(Handler handler, Runnable callback, Object token, long when, long sequence) {
+            mHandler = handler;
+            mCallback = callback;
+            mToken = token;
+            mWhen = when;
+            mSequence = sequence;
+        }
+
+        boolean matches(Handler handler, Runnable callback, Object token) {
+            return mHandler == handler
+                    && (callback == null || mCallback == callback)
+                    && (token == null || mToken == token);
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            final int result = Long.compare(mWhen, other.mWhen);
+            return result != 0 ? result : Long.compare(mSequence, other.mSequence);
+        }
+    }
+}
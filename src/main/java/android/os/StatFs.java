@@ -2,6 +2,7 @@ package android.os;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 
 public class StatFs {
 
@@ -13,8 +14,8 @@ public class StatFs {
 
     public int getBlockSize() {
         try {
-            return (int)file.toPath().getFileSystem().getFileStores().iterator().next().getBlockSize();
-        } catch (IOException e) {
+            return (int) Files.getFileStore(file.toPath()).getBlockSize();
+        } catch (IOException | UnsupportedOperationException e) {
             throw new RuntimeException(e);
         }
     }
@@ -1,6 +1,51 @@
 package android.os;
 
+import java.util.ArrayDeque;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Records the sections marked by the SDK as JDK Flight Recorder events. While no recording
+ * enables the event the sections cost a check and a thread-local lookup.
+ */
 public final class Trace {
-    public static void beginSection(String sectionName) {}
-    public static void endSection() {}
+    private static final ThreadLocal<ArrayDeque<Section>> sSections =
+            ThreadLocal.withInitial(ArrayDeque::new);
+
+    // Stands in for the sections begun while the event was disabled, to keep ends paired with begins.
+    private static final Section DISABLED = new Section();
+
+    private Trace() {
+    }
+
+    public static void beginSection(String sectionName) {
+        Section section = DISABLED;
+        if (Section.TYPE.isEnabled()) {
+            section = new Section();
+            section.name = sectionName;
+            section.begin();
+        }
+        sSections.get().push(section);
+    }
+
+    public static void endSection() {
+        final Section section = sSections.get().poll();
+        if (section != null && section != DISABLED) {
+            section.commit();
+        }
+    }
+
+    @Name("android.os.Trace.Section")
+    @Label("Trace Section")
+    @Category("Android")
+    static final class Section extends Event {
+        static final EventType TYPE = EventType.getEventType(Section.class);
+
+        @Label("Name")
+        String name;
+    }
 }
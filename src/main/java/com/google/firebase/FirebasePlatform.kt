@@ -1,6 +1,11 @@
 package com.google.firebase
 
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.asExecutor
+import okhttp3.OkHttpClient
 import java.io.File
+import java.util.concurrent.Executor
+import kotlin.coroutines.EmptyCoroutineContext
 
 abstract class FirebasePlatform {
 
@@ -8,6 +13,9 @@ abstract class FirebasePlatform {
 
         internal lateinit var firebasePlatform: FirebasePlatform
 
+        internal val platformOrNull: FirebasePlatform?
+            get() = if (::firebasePlatform.isInitialized) firebasePlatform else null
+
         fun initializeFirebasePlatform(platform: FirebasePlatform) {
             firebasePlatform = platform
             // prevent coroutines from thinking its on android
@@ -17,6 +25,14 @@ abstract class FirebasePlatform {
 
     abstract fun store(key: String, value: String)
 
+    /**
+     * Stores a batch of values written through SharedPreferences, a null value clears its key.
+     * Override to persist the whole batch at once when the backing store is a file or database.
+     */
+    open fun storeAll(values: Map<String, String?>) {
+        values.forEach { (key, value) -> if (value == null) clear(key) else store(key, value) }
+    }
+
     abstract fun retrieve(key: String): String?
 
     abstract fun clear(key: String)
@@ -24,4 +40,78 @@ abstract class FirebasePlatform {
     abstract fun log(msg: String)
 
     open fun getDatabasePath(name: String): File = File("${System.getProperty("java.io.tmpdir")}${File.separatorChar}$name")
+
+    /**
+     * The number of prepared statements each connection to the database at [path] keeps cached,
+     * between 0 and [android.database.sqlite.SQLiteDatabase.MAX_SQL_CACHE_SIZE].
+     */
+    open fun getSqlCacheSize(path: String): Int = 25
+
+    /**
+     * The time in milliseconds from which statements on the database at [path] are recorded, along
+     * with their query plan, in [android.database.sqlite.SQLiteDebug.getSlowQueries]. Negative
+     * values, the default, disable the slow query log.
+     */
+    open fun getSlowQueryThresholdMillis(path: String): Long = -1
+
+    /**
+     * The page size, page cache, memory-mapped I/O and temporary storage of the database at [path].
+     * Return [StorageProfile.READ_HEAVY] for the Firestore and Realtime Database caches to map them
+     * into memory whole. Defaults to [StorageProfile.auto], derived from the file system and heap.
+     */
+    open fun getStorageProfile(path: String): StorageProfile = StorageProfile.auto(path)
+
+    /**
+     * Whether the database named [name], such as the Firestore and Realtime Database persistence
+     * files, is opened in write-ahead logging mode so reads can run alongside writes.
+     */
+    open fun isWriteAheadLoggingEnabled(name: String): Boolean = true
+
+    /**
+     * The single-threaded executor that runs the callbacks posted to the main [android.os.Looper],
+     * such as a UI toolkit's event thread. Defaults to [Dispatchers.Main] when one is available,
+     * otherwise the main looper runs on a thread of its own.
+     */
+    open fun getMainExecutor(): Executor? = try {
+        Dispatchers.Main.also { it.isDispatchNeeded(EmptyCoroutineContext) }.asExecutor()
+    } catch (e: IllegalStateException) {
+        null
+    }
+
+    /**
+     * The executor that runs the SDK's background work, such as [android.os.AsyncTask.THREAD_POOL_EXECUTOR].
+     * On JDK 21 `Executors.newVirtualThreadPerTaskExecutor()` suits work that mostly blocks on I/O.
+     * Defaults to a bounded pool of [getBackgroundThreadCount] daemon threads.
+     */
+    open fun getBackgroundExecutor(): Executor? = null
+
+    /**
+     * The number of threads in the default background pool.
+     */
+    open fun getBackgroundThreadCount(): Int = (Runtime.getRuntime().availableProcessors() - 1).coerceIn(2, 4)
+
+    /**
+     * The executor that calls the [com.google.firebase.auth.FirebaseAuth.AuthStateListener]s and
+     * [com.google.firebase.auth.FirebaseAuth.IdTokenListener]s, return [getMainExecutor] to call them
+     * on the UI thread. Defaults to an event thread of the SDK's own. The SDK's internal token
+     * listeners never go through it, they are called directly on the thread that changed the token.
+     */
+    open fun getAuthListenerExecutor(): Executor? = null
+
+    /**
+     * The HTTP client the SDK's REST calls go through, shared by every [FirebaseApp] in the process.
+     * Override to reuse the application's own client and its warm connections. Defaults to a client
+     * built once from [getHttpClientConfig] that reports the timing of its calls to [onHttpCall].
+     */
+    open fun getHttpClient(): OkHttpClient? = null
+
+    /**
+     * The connection pool, dispatcher and timeout settings of the default HTTP client.
+     */
+    open fun getHttpClientConfig(): HttpClientConfig = HttpClientConfig()
+
+    /**
+     * Called on an OkHttp thread when a call made by the default HTTP client completes or fails.
+     */
+    open fun onHttpCall(timing: HttpCallTiming) {}
 }
@@ -0,0 +1,37 @@
+package com.google.firebase
+
+import java.io.IOException
+
+/**
+ * Tuning for the HTTP client the SDK builds when [FirebasePlatform.getHttpClient] doesn't supply one.
+ * The client and its connection pool are shared by every [FirebaseApp] in the process.
+ */
+data class HttpClientConfig(
+    val maxIdleConnections: Int = 5,
+    val keepAliveMillis: Long = 5 * 60 * 1000L,
+    val maxRequests: Int = 64,
+    val maxRequestsPerHost: Int = 5,
+    /** Negotiate HTTP/2 with servers that support it, otherwise only speak HTTP/1.1 */
+    val http2: Boolean = true,
+    val connectTimeoutMillis: Long = 60 * 1000L,
+    val readTimeoutMillis: Long = 60 * 1000L,
+    val writeTimeoutMillis: Long = 60 * 1000L
+)
+
+/**
+ * The timing of a completed or failed call made by the shared HTTP client, reported to
+ * [FirebasePlatform.onHttpCall]. Phases that didn't happen, such as connecting when a pooled
+ * connection was reused, are -1.
+ */
+data class HttpCallTiming(
+    val method: String,
+    val url: String,
+    val dnsMillis: Long,
+    val connectMillis: Long,
+    val tlsMillis: Long,
+    /** From sending the request headers to receiving the response headers */
+    val ttfbMillis: Long,
+    val totalMillis: Long,
+    val reusedConnection: Boolean,
+    val failure: IOException?
+)
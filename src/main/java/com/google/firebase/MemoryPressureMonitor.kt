@@ -0,0 +1,158 @@
+package com.google.firebase
+
+import android.content.ComponentCallbacks
+import android.content.ComponentCallbacks2
+import java.lang.management.ManagementFactory
+import java.lang.management.MemoryPoolMXBean
+import java.lang.management.MemoryType
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.Executors
+import javax.management.ListenerNotFoundException
+import javax.management.NotificationEmitter
+import javax.management.NotificationListener
+
+/**
+ * Stands in for the trim memory signals Android sends to [ComponentCallbacks2.onTrimMemory], so the
+ * caches of a long-running process shed memory before the heap runs out.
+ *
+ * A collection usage threshold of 70% is set on each heap pool that supports one and has none set
+ * yet, a threshold the host application set is left as it is. Whenever a garbage collection pushed
+ * a pool over its threshold the pools are graded by how full they were left: from 70% the registered
+ * callbacks are sent [ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE], from 85%
+ * [ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW] and from 95%
+ * [ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL] followed by [ComponentCallbacks.onLowMemory].
+ * A level is sent again at most every 10 seconds while the heap stays at it. The monitor stops and
+ * clears the thresholds it set once the last callback is unregistered.
+ */
+object MemoryPressureMonitor {
+
+    private const val MODERATE = 0.70
+    private const val LOW = 0.85
+    private const val CRITICAL = 0.95
+    private const val REPEAT_MILLIS = 10_000L
+
+    private val callbacks = CopyOnWriteArrayList<ComponentCallbacks>()
+
+    // The old generation pools, the young ones are always full after a collection.
+    private val pools: List<MemoryPoolMXBean> by lazy {
+        ManagementFactory.getMemoryPoolMXBeans().filter {
+            it.type == MemoryType.HEAP && it.isUsageThresholdSupported &&
+                it.isCollectionUsageThresholdSupported && it.usage.max > 0
+        }
+    }
+
+    private val dispatcher by lazy {
+        Executors.newSingleThreadExecutor { Thread(it, "firebase-trim-memory").apply { isDaemon = true } }
+    }
+
+    private val listener = NotificationListener { _, _ -> dispatcher.execute(::check) }
+
+    private var started = false
+
+    // The pools whose collection usage threshold was set here rather than by the host application.
+    private val ownedThresholds = mutableListOf<MemoryPoolMXBean>()
+
+    // Only touched by the dispatcher thread.
+    private var lastDispatchMillis = 0L
+
+    // Only touched by the dispatcher thread: the threshold count of each pool at the last check, the
+    // collection usage of a pool is only new when its count moved on.
+    private val thresholdCounts = HashMap<String, Long>()
+
+    /**
+     * The trim level last sent to the callbacks, 0 once a collection brought the heap back under 70%.
+     */
+    @Volatile
+    @JvmStatic
+    var trimLevel = 0
+        private set
+
+    /**
+     * Sends the trim levels to [callbacks] from now on, starting the monitor if it isn't yet.
+     */
+    @JvmStatic
+    fun register(callbacks: ComponentCallbacks) {
+        this.callbacks += callbacks
+        start()
+    }
+
+    @JvmStatic
+    fun unregister(callbacks: ComponentCallbacks) {
+        this.callbacks -= callbacks
+        stopIfUnused()
+    }
+
+    @Synchronized
+    private fun start() {
+        if (started) return
+        started = true
+        pools.filter { it.collectionUsageThreshold == 0L }.forEach {
+            it.collectionUsageThreshold = (it.usage.max * MODERATE).toLong()
+            ownedThresholds += it
+        }
+        collectors().forEach { it.addNotificationListener(listener, null, null) }
+    }
+
+    @Synchronized
+    private fun stopIfUnused() {
+        if (!started || callbacks.isNotEmpty()) return
+        started = false
+        collectors().forEach {
+            try {
+                it.removeNotificationListener(listener)
+            } catch (e: ListenerNotFoundException) {
+                // never added to this collector
+            }
+        }
+        // zero disables the threshold again, unless someone else has replaced it meanwhile
+        ownedThresholds
+            .filter { it.collectionUsageThreshold == (it.usage.max * MODERATE).toLong() }
+            .forEach { it.collectionUsageThreshold = 0 }
+        ownedThresholds.clear()
+        trimLevel = 0
+    }
+
+    private fun collectors() = ManagementFactory.getGarbageCollectorMXBeans().filterIsInstance<NotificationEmitter>()
+
+    private fun check() {
+        var collected = false
+        var fraction = 0.0
+        for (pool in pools) {
+            val usage = pool.collectionUsage ?: continue
+            fraction = maxOf(fraction, usage.used.toDouble() / pool.usage.max)
+            val count = pool.collectionUsageThresholdCount
+            if ((thresholdCounts.put(pool.name, count) ?: 0L) != count) collected = true
+        }
+        val level = when {
+            fraction >= CRITICAL -> ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL
+            fraction >= LOW -> ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+            fraction >= MODERATE -> ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE
+            else -> 0
+        }
+        if (level == 0) {
+            trimLevel = 0
+            return
+        }
+        // A young collection leaves the old generation's usage as it was after the last full one
+        if (!collected) return
+        val now = System.currentTimeMillis()
+        if (level <= trimLevel && now - lastDispatchMillis < REPEAT_MILLIS) return
+        trimLevel = level
+        lastDispatchMillis = now
+        FirebasePlatform.platformOrNull?.log("Heap ${(fraction * 100).toInt()}% full after GC, trimming memory at level $level")
+        dispatch(level)
+    }
+
+    private fun dispatch(level: Int) {
+        callbacks.forEach { callback -> safely { (callback as? ComponentCallbacks2)?.onTrimMemory(level) } }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            callbacks.forEach { callback -> safely { callback.onLowMemory() } }
+        }
+    }
+
+    private inline fun safely(block: () -> Unit) = try {
+        block()
+    } catch (e: RuntimeException) {
+        FirebasePlatform.platformOrNull?.log("Trim memory callback failed: $e")
+    }
+}
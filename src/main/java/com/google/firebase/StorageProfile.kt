@@ -0,0 +1,74 @@
+package com.google.firebase
+
+import android.os.StatFs
+import java.io.File
+
+/**
+ * How a SQLite database, such as the Firestore and Realtime Database persistence files, lays out and
+ * caches its pages, returned by [FirebasePlatform.getStorageProfile] for each database.
+ *
+ * The [pageSize] only applies to databases created with it, an existing database keeps its page size
+ * until it is vacuumed. The other settings apply to every connection when it is opened.
+ */
+data class StorageProfile(
+    /** The page size in bytes of new databases, a power of two from 512 to 65536 */
+    val pageSize: Int = 4096,
+    /** The size of the page cache of each connection in KiB */
+    val cacheSizeKiB: Int = 2000,
+    /** The number of bytes of the database file read through memory-mapped I/O, 0 to read it with read() */
+    val mmapSize: Long = 0,
+    /** Where temporary tables and indices are kept */
+    val tempStore: TempStore = TempStore.DEFAULT,
+    /** The size in bytes the journal or write-ahead log is truncated to after a transaction or checkpoint */
+    val journalSizeLimit: Long = 512 * 1024L
+) {
+
+    enum class TempStore { DEFAULT, FILE, MEMORY }
+
+    companion object {
+
+        /**
+         * The settings connections were opened with before profiles: 1 KiB pages, a journal truncated
+         * to 10000 bytes and SQLite's own defaults otherwise.
+         */
+        @JvmField
+        val DEFAULT = StorageProfile(pageSize = 1024, journalSizeLimit = 10000)
+
+        /**
+         * For read-heavy cache databases: larger pages so big rows spill into fewer overflow pages,
+         * a larger page cache and the whole file memory-mapped.
+         */
+        @JvmField
+        val READ_HEAVY = StorageProfile(
+            pageSize = 8192,
+            cacheSizeKiB = 8 * 1024,
+            mmapSize = 256 * 1024 * 1024L,
+            tempStore = TempStore.MEMORY
+        )
+
+        /**
+         * Derives a profile for the database at [path] from the block size of its file system and
+         * the maximum heap: the page size matches the block size and the page cache gets 1/256th of
+         * the heap. The page cache size is per connection, so a database opened in WAL mode uses it
+         * once for every pooled connection. Memory-mapped I/O is left to [READ_HEAVY].
+         */
+        @JvmStatic
+        fun auto(path: String): StorageProfile {
+            val blockSize = try {
+                StatFs(existingAncestor(File(path).absoluteFile).path).blockSize
+            } catch (e: RuntimeException) {
+                DEFAULT.pageSize
+            }
+            val maxHeapKiB = Runtime.getRuntime().maxMemory() / 1024
+            return StorageProfile(
+                pageSize = Integer.highestOneBit(blockSize.coerceIn(4096, 65536)),
+                cacheSizeKiB = (maxHeapKiB / 256).coerceIn(2000L, 16 * 1024L).toInt(),
+                mmapSize = 0,
+                tempStore = TempStore.MEMORY
+            )
+        }
+
+        private fun existingAncestor(file: File): File =
+            generateSequence(file) { it.parentFile }.firstOrNull { it.exists() } ?: file
+    }
+}
@@ -0,0 +1,53 @@
+@file:OptIn(ExperimentalSerializationApi::class)
+
+package com.google.firebase.auth
+
+import kotlinx.serialization.ExperimentalSerializationApi
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.json.JsonNames
+import kotlinx.serialization.json.decodeFromStream
+import okhttp3.ResponseBody
+
+/**
+ * The user returned by the identitytoolkit sign in and update calls and the securetoken refresh
+ * call, which spells its fields in snake case, as well as the user persisted by [FirebaseAuth].
+ */
+@Serializable
+internal class UserResponse(
+    @JsonNames("uid", "user_id")
+    val localId: String? = null,
+    @JsonNames("id_token")
+    val idToken: String? = null,
+    @JsonNames("refresh_token")
+    val refreshToken: String? = null,
+    @JsonNames("expires_in")
+    val expiresIn: Int? = null,
+    val createdAt: Long? = null,
+    val isAnonymous: Boolean? = null,
+    val email: String? = null,
+    val newEmail: String? = null,
+    @JsonNames("photo_url")
+    val photoUrl: String? = null,
+    @JsonNames("display_name")
+    val displayName: String? = null
+)
+
+@Serializable
+internal class AccountInfoResponse(
+    val users: List<UserResponse> = emptyList()
+)
+
+@Serializable
+internal class ErrorResponse(
+    val error: Error? = null
+) {
+    @Serializable
+    class Error(
+        val message: String? = null
+    )
+}
+
+/**
+ * Decodes the body straight from the response stream, without reading it into a string first.
+ */
+internal inline fun <reified T> ResponseBody.decode(): T = use { jsonParser.decodeFromStream(it.byteStream()) }
@@ -11,9 +11,6 @@ import com.google.firebase.FirebasePlatform
 import com.google.firebase.auth.internal.InternalAuthProvider
 import com.google.firebase.internal.InternalTokenResult
 import com.google.firebase.internal.api.FirebaseNoSignedInUserException
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.GlobalScope
-import kotlinx.coroutines.launch
 import kotlinx.serialization.Serializable
 import kotlinx.serialization.Transient
 import kotlinx.serialization.json.Json
@@ -37,10 +34,15 @@ import okhttp3.OkHttpClient
 import okhttp3.Request
 import okhttp3.RequestBody
 import okhttp3.Response
+import okhttp3.ResponseBody
 import java.io.IOException
 import java.util.Base64
 import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
 
 internal val jsonParser = Json { ignoreUnknownKeys = true }
 
@@ -92,13 +94,57 @@ class FirebaseUserImpl internal constructor(
         urlFactory = urlFactory
     )
 
-    val claims: Map<String, Any?> by lazy {
+    internal constructor(
+        app: FirebaseApp,
+        response: UserResponse,
+        isAnonymous: Boolean = response.isAnonymous ?: false,
+        email: String? = response.email
+    ) : this(
+        app = app,
+        isAnonymous = isAnonymous,
+        uid = response.localId.orEmpty(),
+        idToken = requireNotNull(response.idToken) { "idToken missing from response" },
+        refreshToken = requireNotNull(response.refreshToken) { "refreshToken missing from response" },
+        expiresIn = requireNotNull(response.expiresIn) { "expiresIn missing from response" },
+        createdAt = response.createdAt ?: System.currentTimeMillis(),
+        email = email,
+        photoUrl = response.photoUrl,
+        displayName = response.displayName
+    )
+
+    // decoded once per ID token, copies of the user with the same token share it
+    @Transient
+    private var decodedClaims: Map<String, Any?>? = null
+
+    val claims: Map<String, Any?>
+        get() = decodedClaims ?: decodeClaims().also { decodedClaims = it }
+
+    private fun decodeClaims(): Map<String, Any?> =
         jsonParser
-            .parseToJsonElement(String(Base64.getUrlDecoder().decode(idToken.split(".")[1])))
+            .parseToJsonElement(String(Base64.getUrlDecoder().decode(idToken.substringAfter('.').substringBefore('.'))))
             .jsonObject
             .run { value as? Map<String, Any?>? }
             .orEmpty()
-    }
+
+    /**
+     * A copy of this user with the fields present in [response] replacing its own.
+     */
+    internal fun update(
+        response: UserResponse,
+        email: String? = response.newEmail
+    ) = FirebaseUserImpl(
+        app = app,
+        isAnonymous = isAnonymous,
+        uid = uid,
+        idToken = response.idToken ?: idToken,
+        refreshToken = response.refreshToken ?: refreshToken,
+        expiresIn = response.expiresIn ?: expiresIn,
+        createdAt = createdAt,
+        email = email ?: this.email,
+        photoUrl = response.photoUrl ?: photoUrl,
+        displayName = response.displayName ?: displayName,
+        urlFactory = urlFactory
+    ).also { if (it.idToken == idToken) it.decodedClaims = decodedClaims }
 
     internal val JsonElement.value get(): Any? =
         when (this) {
@@ -237,18 +283,15 @@ class FirebaseAuth constructor(
     val app: FirebaseApp
 ) : InternalAuthProvider {
     internal val json = MediaType.parse("application/json; charset=utf-8")
-    internal val client: OkHttpClient =
-        OkHttpClient
-            .Builder()
-            .connectTimeout(60, TimeUnit.SECONDS)
-            .readTimeout(60, TimeUnit.SECONDS)
-            .writeTimeout(60, TimeUnit.SECONDS)
-            .build()
+    internal val client: OkHttpClient = SharedHttpClient.client
+
+    // the client is shared with other apps, so only ever cancel this app's refresh
+    private val refreshTokenTag = "$REFRESH_TOKEN_TAG[${app.name}]"
 
     private fun enqueueAuthPost(
         url: String,
         body: RequestBody,
-        setResult: (responseBody: String) -> FirebaseUserImpl?
+        setResult: (responseBody: ResponseBody) -> FirebaseUserImpl?
     ): TaskCompletionSource<AuthResult> {
         val source = TaskCompletionSource<AuthResult>()
         val request = Request.Builder()
@@ -275,7 +318,7 @@ class FirebaseAuth constructor(
                             createAuthInvalidUserException("accounts", request, response)
                         )
                     } else {
-                        if (response.body()?.use { it.string() }?.also { responseBody ->
+                        if (response.body()?.also { responseBody ->
                             user = setResult(responseBody)
                             source.setResult(AuthResult { user })
                         } == null
@@ -299,6 +342,14 @@ class FirebaseAuth constructor(
         fun getInstance(app: FirebaseApp): FirebaseAuth = app.get(FirebaseAuth::class.java)
 
         private const val REFRESH_TOKEN_TAG = "refresh_token_tag"
+
+        // how long a refresh that hasn't completed is still joined by new callers
+        private const val REFRESH_STALE_MILLIS = 60_000L
+
+        // shared by every app unless the platform supplies its own executor
+        private val eventExecutor by lazy {
+            Executors.newSingleThreadExecutor { Thread(it, "firebase-auth-events").apply { isDaemon = true } }
+        }
     }
 
     private val internalIdTokenListeners = CopyOnWriteArrayList<com.google.firebase.auth.internal.IdTokenListener>()
@@ -310,9 +361,14 @@ class FirebaseAuth constructor(
 
     val FirebaseApp.key get() = "com.google.firebase.auth.FIREBASE_USER${"[$name]".takeUnless { isDefaultApp }.orEmpty()}"
 
+    @Volatile
+    private var tokenRefresher: TokenRefresher? = null
+
+    private val persistence = UserPersistence(app.key)
+
     private var user: FirebaseUserImpl? =
-        FirebasePlatform.firebasePlatform
-            .runCatching { retrieve(app.key)?.let { FirebaseUserImpl(app, data = jsonParser.parseToJsonElement(it).jsonObject) } }
+        persistence
+            .runCatching { retrieve()?.let { FirebaseUserImpl(app, jsonParser.decodeFromString<UserResponse>(it)) } }
             .onFailure { it.printStackTrace() }
             .getOrNull()
 
@@ -321,23 +377,22 @@ class FirebaseAuth constructor(
                 val prev = field
                 field = value
 
-                if (value == null) {
-                    FirebasePlatform.firebasePlatform.clear(app.key)
-                } else {
-                    FirebasePlatform.firebasePlatform.store(app.key, jsonParser.encodeToString(FirebaseUserImpl.serializer(), value))
+                persistence.save(value)
+
+                if (prev?.idToken != value?.idToken) {
+                    tokenRefresher?.schedule(value)
+                }
+
+                if (prev?.idToken != value?.idToken) {
+                    notifyInternalIdTokenListeners()
                 }
 
-                GlobalScope.launch(Dispatchers.Main) {
+                listenerExecutor.execute {
                     if (prev?.uid != value?.uid) {
                         authStateListeners.forEach { l -> l.onAuthStateChanged(this@FirebaseAuth) }
                     }
 
                     if (prev?.idToken != value?.idToken) {
-                        val result = InternalTokenResult(value?.idToken)
-                        for (listener in internalIdTokenListeners) {
-                            Log.i("FirebaseAuth", "Calling onIdTokenChanged for ${value?.uid} on listener $listener")
-                            listener.onIdTokenChanged(result)
-                        }
                         for (listener in idTokenListeners) {
                             listener.onIdTokenChanged(this@FirebaseAuth)
                         }
@@ -346,6 +401,22 @@ class FirebaseAuth constructor(
             }
         }
 
+    private val listenerExecutor: Executor = FirebasePlatform.platformOrNull?.getAuthListenerExecutor() ?: eventExecutor
+
+    // The SDK's own listeners hand the token to their own threads, so they are called directly and
+    // outside the lock rather than through the listener executor, which may be the UI thread. They
+    // get the current token rather than the one that changed, so racing updates can't leave a
+    // listener with a stale token.
+    private fun notifyInternalIdTokenListeners() {
+        val listeners = synchronized(internalIdTokenListeners) { internalIdTokenListeners.toList() }
+        val user = user
+        val result = InternalTokenResult(user?.idToken)
+        for (listener in listeners) {
+            Log.i("FirebaseAuth", "Calling onIdTokenChanged for ${user?.uid} on listener $listener")
+            listener.onIdTokenChanged(result)
+        }
+    }
+
     private var urlFactory = UrlFactory(app)
 
     fun signInAnonymously(): Task<AuthResult> {
@@ -353,7 +424,7 @@ class FirebaseAuth constructor(
             url = "identitytoolkit.googleapis.com/v1/accounts:signUp",
             body = RequestBody.create(json, JsonObject(mapOf("returnSecureToken" to JsonPrimitive(true))).toString()),
             setResult = { responseBody ->
-                FirebaseUserImpl(app, jsonParser.parseToJsonElement(responseBody).jsonObject, isAnonymous = true)
+                FirebaseUserImpl(app, responseBody.decode<UserResponse>(), isAnonymous = true)
             }
         )
         return source.task
@@ -367,7 +438,7 @@ class FirebaseAuth constructor(
                 JsonObject(mapOf("token" to JsonPrimitive(customToken), "returnSecureToken" to JsonPrimitive(true))).toString()
             ),
             setResult = { responseBody ->
-                FirebaseUserImpl(app, jsonParser.parseToJsonElement(responseBody).jsonObject)
+                FirebaseUserImpl(app, responseBody.decode<UserResponse>())
             }
         ).task.continueWith {
             updateByGetAccountInfo()
@@ -409,29 +480,16 @@ class FirebaseAuth constructor(
                             createAuthInvalidUserException("updateWithAccountInfo", request, response)
                         )
                     } else {
-                        val newBody =
-                            jsonParser
-                                .parseToJsonElement(
-                                    response.body()?.use { it.string() } ?: ""
-                                ).jsonObject
-
-                        user?.let { prev ->
-                            user =
-                                FirebaseUserImpl(
-                                    app = app,
-                                    isAnonymous = prev.isAnonymous,
-                                    uid = prev.uid,
-                                    idToken = prev.idToken,
-                                    refreshToken = prev.refreshToken,
-                                    expiresIn = prev.expiresIn,
-                                    createdAt = newBody["createdAt"]?.jsonPrimitive?.longOrNull ?: prev.createdAt,
-                                    email = newBody["email"]?.jsonPrimitive?.contentOrNull ?: prev.email,
-                                    photoUrl = newBody["photoUrl"]?.jsonPrimitive?.contentOrNull ?: prev.photoUrl,
-                                    displayName = newBody["displayName"]?.jsonPrimitive?.contentOrNull ?: prev.displayName
-                                )
+                        // createdAt of the account is not when the ID token was issued, so it is left alone
+                        val account = response.body()?.decode<AccountInfoResponse>()?.users?.firstOrNull() ?: UserResponse()
+
+                        val prev = user
+                        if (prev != null) {
+                            user = prev.update(account, email = account.email)
                             source.setResult(AuthResult { user })
+                        } else {
+                            source.setResult(null)
                         }
-                        source.setResult(null)
                     }
                 }
             }
@@ -458,10 +516,7 @@ class FirebaseAuth constructor(
                     ).toString()
                 ),
                 setResult = { responseBody ->
-                    FirebaseUserImpl(
-                        app = app,
-                        data = jsonParser.parseToJsonElement(responseBody).jsonObject
-                    )
+                    FirebaseUserImpl(app, responseBody.decode<UserResponse>())
                 }
             )
         return source.task
@@ -486,7 +541,7 @@ class FirebaseAuth constructor(
                     ).toString()
                 ),
                 setResult = { responseBody ->
-                    FirebaseUserImpl(app, jsonParser.parseToJsonElement(responseBody).jsonObject)
+                    FirebaseUserImpl(app, responseBody.decode<UserResponse>())
                 }
             )
         return source.task
@@ -498,15 +553,10 @@ class FirebaseAuth constructor(
         response: Response
     ): FirebaseAuthInvalidUserException {
         val body = response.body()!!.use { it.string() }
-        val jsonObject = jsonParser.parseToJsonElement(body).jsonObject
+        val error = jsonParser.runCatching { decodeFromString<ErrorResponse>(body) }.getOrNull()?.error
 
         return FirebaseAuthInvalidUserException(
-            jsonObject["error"]
-                ?.jsonObject
-                ?.get("message")
-                ?.jsonPrimitive
-                ?.contentOrNull
-                ?: "UNKNOWN_ERROR",
+            error?.message ?: "UNKNOWN_ERROR",
             "$action API returned an error, " +
                 "with url [${request.method()}] ${request.url()} ${request.body()} -- " +
                 "response [${response.code()}] ${response.message()} $body"
@@ -515,17 +565,12 @@ class FirebaseAuth constructor(
 
     fun signOut() {
         // cancel token refresher
-        client
-            .dispatcher()
-            .queuedCalls()
-            .find { it.request().tag() == REFRESH_TOKEN_TAG }
-            ?.cancel() ?: {
-            client
-                .dispatcher()
-                .runningCalls()
-                .find { it.request().tag() == REFRESH_TOKEN_TAG }
-                ?.cancel()
-        }
+        tokenRefresher?.cancel()
+        // the client is shared, so only this app's refresh calls are cancelled
+        val dispatcher = client.dispatcher()
+        (dispatcher.queuedCalls() + dispatcher.runningCalls())
+            .filter { it.request().tag() == refreshTokenTag }
+            .forEach { it.cancel() }
         user = null
     }
 
@@ -542,22 +587,84 @@ class FirebaseAuth constructor(
         return source.task
     }
 
-    private var refreshSource = TaskCompletionSource<FirebaseUserImpl>().apply { setException(Exception()) }
+    /**
+     * Enables refreshing the ID token of the signed-in user in the background ahead of its expiry,
+     * so [getAccessToken] can keep returning the cached token instead of waiting on a refresh.
+     * Disabled by default.
+     */
+    @Synchronized
+    fun setProactiveTokenRefreshEnabled(enabled: Boolean) {
+        if (enabled == (tokenRefresher != null)) return
+        tokenRefresher = if (enabled) {
+            TokenRefresher(this).apply { schedule(user) }
+        } else {
+            tokenRefresher?.shutdown()
+            null
+        }
+    }
+
+    /**
+     * Counts of the token refreshes requested through [getAccessToken], [FirebaseUser.reload] and the
+     * background refresher: [refreshes] went to the network, [coalesced] waited on one already in flight.
+     */
+    data class TokenRefreshStats(val refreshes: Long, val coalesced: Long)
+
+    /*
+     * The refresh in flight, or the last one to complete, along with the user it was started for.
+     * Callers refreshing the same uid and refresh token attach to it rather than starting their own.
+     */
+    private class InFlightRefresh(val user: FirebaseUserImpl) {
+        val source = TaskCompletionSource<FirebaseUserImpl>()
+        private val startedAt = System.nanoTime()
+
+        fun isFor(user: FirebaseUserImpl) = user.uid == this.user.uid && user.refreshToken == this.user.refreshToken
+
+        /*
+         * A refresh that has already replaced the caller's ID token is as good as a new one: the caller
+         * read the user just before the new token was stored and refreshing again would only repeat it.
+         * One still running after REFRESH_STALE_MILLIS is assumed lost and no longer joined.
+         */
+        fun canServe(user: FirebaseUserImpl) = isFor(user) &&
+            if (source.task.isComplete) {
+                source.task.isSuccessful && user.idToken == this.user.idToken
+            } else {
+                System.nanoTime() - startedAt < TimeUnit.MILLISECONDS.toNanos(REFRESH_STALE_MILLIS)
+            }
+    }
+
+    private val refreshInFlight = AtomicReference<InFlightRefresh?>()
+    private val refreshCount = AtomicLong()
+    private val coalescedRefreshCount = AtomicLong()
+
+    fun getTokenRefreshStats() = TokenRefreshStats(refreshCount.get(), coalescedRefreshCount.get())
 
     internal fun <T> refreshToken(
         user: FirebaseUserImpl,
         source: TaskCompletionSource<T>,
         map: (user: FirebaseUserImpl) -> T?
     ) {
-        refreshSource = refreshSource
-            .takeUnless { it.task.isComplete }
-            ?: enqueueRefreshTokenCall(user)
-        refreshSource.task.addOnSuccessListener { source.setResult(map(it)) }
-        refreshSource.task.addOnFailureListener { source.setException(FirebaseException(it.toString(), it)) }
+        val refresh = acquireRefresh(user)
+        refresh.source.task.addOnSuccessListener { source.setResult(map(it)) }
+        refresh.source.task.addOnFailureListener { source.setException(FirebaseException(it.toString(), it)) }
     }
 
-    private fun enqueueRefreshTokenCall(user: FirebaseUserImpl): TaskCompletionSource<FirebaseUserImpl> {
-        val source = TaskCompletionSource<FirebaseUserImpl>()
+    private fun acquireRefresh(user: FirebaseUserImpl): InFlightRefresh {
+        while (true) {
+            val current = refreshInFlight.get()
+            if (current != null && current.canServe(user)) {
+                coalescedRefreshCount.incrementAndGet()
+                return current
+            }
+            val next = InFlightRefresh(user)
+            if (refreshInFlight.compareAndSet(current, next)) {
+                refreshCount.incrementAndGet()
+                enqueueRefreshTokenCall(user, next.source)
+                return next
+            }
+        }
+    }
+
+    private fun enqueueRefreshTokenCall(user: FirebaseUserImpl, source: TaskCompletionSource<FirebaseUserImpl>) {
         val body =
             RequestBody.create(
                 json,
@@ -573,7 +680,7 @@ class FirebaseAuth constructor(
                 .Builder()
                 .url(urlFactory.buildUrl("securetoken.googleapis.com/v1/token"))
                 .post(body)
-                .tag(REFRESH_TOKEN_TAG)
+                .tag(refreshTokenTag)
                 .build()
 
         client.newCall(request).enqueue(
@@ -590,22 +697,30 @@ class FirebaseAuth constructor(
                     call: Call,
                     response: Response
                 ) {
-                    val responseBody = response.body()?.use { it.string() }
+                    // OkHttp doesn't report exceptions thrown here, and callers joining this refresh
+                    // would wait on it forever if it was left incomplete
+                    try {
+                        handleResponse(response)
+                    } catch (e: RuntimeException) {
+                        source.trySetException(FirebaseException(e.toString(), e))
+                    }
+                }
+
+                private fun handleResponse(response: Response) {
+                    val responseBody = response.body()
 
                     if (!response.isSuccessful || responseBody == null) {
-                        signOutAndThrowInvalidUserException(responseBody.orEmpty(), "token API returned an error: $body")
+                        signOutAndThrowInvalidUserException(responseBody?.use { it.string() }.orEmpty(), "token API returned an error: $body")
                     } else {
-                        jsonParser.parseToJsonElement(responseBody).jsonObject.apply {
-                            val newUser = FirebaseUserImpl(app, this, user.isAnonymous, user.email)
-                            if (newUser.claims["aud"] != app.options.projectId) {
-                                signOutAndThrowInvalidUserException(
-                                    newUser.claims.toString(),
-                                    "Project ID's do not match ${newUser.claims["aud"]} != ${app.options.projectId}"
-                                )
-                            } else {
-                                this@FirebaseAuth.user = newUser
-                                source.setResult(newUser)
-                            }
+                        val newUser = FirebaseUserImpl(app, responseBody.decode<UserResponse>(), user.isAnonymous, user.email)
+                        if (newUser.claims["aud"] != app.options.projectId) {
+                            signOutAndThrowInvalidUserException(
+                                newUser.claims.toString(),
+                                "Project ID's do not match ${newUser.claims["aud"]} != ${app.options.projectId}"
+                            )
+                        } else {
+                            this@FirebaseAuth.user = newUser
+                            source.setResult(newUser)
                         }
                     }
                 }
@@ -619,7 +734,6 @@ class FirebaseAuth constructor(
                 }
             }
         )
-        return source
     }
 
     internal fun updateEmail(email: String): Task<Unit> {
@@ -667,27 +781,9 @@ class FirebaseAuth constructor(
                             )
                         )
                     } else {
-                        val newBody =
-                            jsonParser
-                                .parseToJsonElement(
-                                    response.body()?.use { it.string() } ?: ""
-                                ).jsonObject
-
-                        user?.let { prev ->
-                            user =
-                                FirebaseUserImpl(
-                                    app = app,
-                                    isAnonymous = prev.isAnonymous,
-                                    uid = prev.uid,
-                                    idToken = newBody["idToken"]?.jsonPrimitive?.contentOrNull ?: prev.idToken,
-                                    refreshToken = newBody["refreshToken"]?.jsonPrimitive?.contentOrNull ?: prev.refreshToken,
-                                    expiresIn = newBody["expiresIn"]?.jsonPrimitive?.intOrNull ?: prev.expiresIn,
-                                    createdAt = prev.createdAt,
-                                    email = newBody["newEmail"]?.jsonPrimitive?.contentOrNull ?: prev.email,
-                                    photoUrl = newBody["photoUrl"]?.jsonPrimitive?.contentOrNull ?: prev.photoUrl,
-                                    displayName = newBody["displayName"]?.jsonPrimitive?.contentOrNull ?: prev.displayName
-                                )
-                        }
+                        val updated = response.body()?.decode<UserResponse>() ?: UserResponse()
+
+                        user?.let { prev -> user = prev.update(updated) }
                         source.setResult(null)
                     }
                 }
@@ -742,27 +838,9 @@ class FirebaseAuth constructor(
                             )
                         )
                     } else {
-                        val newBody =
-                            jsonParser
-                                .parseToJsonElement(
-                                    response.body()?.use { it.string() } ?: ""
-                                ).jsonObject
-
-                        user?.let { prev ->
-                            user =
-                                FirebaseUserImpl(
-                                    app = app,
-                                    isAnonymous = prev.isAnonymous,
-                                    uid = prev.uid,
-                                    idToken = newBody["idToken"]?.jsonPrimitive?.contentOrNull ?: prev.idToken,
-                                    refreshToken = newBody["refreshToken"]?.jsonPrimitive?.contentOrNull ?: prev.refreshToken,
-                                    expiresIn = newBody["expiresIn"]?.jsonPrimitive?.intOrNull ?: prev.expiresIn,
-                                    createdAt = prev.createdAt,
-                                    email = newBody["newEmail"]?.jsonPrimitive?.contentOrNull ?: prev.email,
-                                    photoUrl = newBody["photoUrl"]?.jsonPrimitive?.contentOrNull ?: prev.photoUrl,
-                                    displayName = newBody["displayName"]?.jsonPrimitive?.contentOrNull ?: prev.displayName
-                                )
-                        }
+                        val updated = response.body()?.decode<UserResponse>() ?: UserResponse()
+
+                        user?.let { prev -> user = prev.update(updated) }
                         source.setResult(null)
                     }
                 }
@@ -775,9 +853,7 @@ class FirebaseAuth constructor(
 
     override fun addIdTokenListener(listener: com.google.firebase.auth.internal.IdTokenListener) {
         internalIdTokenListeners.addIfAbsent(listener)
-        GlobalScope.launch(Dispatchers.Main) {
-            listener.onIdTokenChanged(InternalTokenResult(user?.idToken))
-        }
+        listener.onIdTokenChanged(InternalTokenResult(user?.idToken))
     }
 
     override fun removeIdTokenListener(listener: com.google.firebase.auth.internal.IdTokenListener) {
@@ -787,7 +863,7 @@ class FirebaseAuth constructor(
     @Synchronized
     fun addAuthStateListener(listener: AuthStateListener) {
         authStateListeners.addIfAbsent(listener)
-        GlobalScope.launch(Dispatchers.Main) {
+        listenerExecutor.execute {
             listener.onAuthStateChanged(this@FirebaseAuth)
         }
     }
@@ -809,7 +885,7 @@ class FirebaseAuth constructor(
 
     fun addIdTokenListener(listener: IdTokenListener) {
         idTokenListeners.addIfAbsent(listener)
-        GlobalScope.launch(Dispatchers.Main) {
+        listenerExecutor.execute {
             listener.onIdTokenChanged(this@FirebaseAuth)
         }
     }
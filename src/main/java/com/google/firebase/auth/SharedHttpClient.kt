@@ -0,0 +1,122 @@
+package com.google.firebase.auth
+
+import com.google.firebase.FirebasePlatform
+import com.google.firebase.HttpCallTiming
+import com.google.firebase.HttpClientConfig
+import okhttp3.Call
+import okhttp3.ConnectionPool
+import okhttp3.Dispatcher
+import okhttp3.EventListener
+import okhttp3.Handshake
+import okhttp3.OkHttpClient
+import okhttp3.Protocol
+import okhttp3.Response
+import java.io.IOException
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.Proxy
+import java.util.concurrent.TimeUnit
+
+/**
+ * The HTTP client shared by every [FirebaseAuth] instance so they reuse the same connection pool
+ * and TLS sessions to the identitytoolkit and securetoken hosts.
+ */
+internal object SharedHttpClient {
+
+    val client: OkHttpClient by lazy {
+        FirebasePlatform.platformOrNull?.getHttpClient()
+            ?: build(FirebasePlatform.platformOrNull?.getHttpClientConfig() ?: HttpClientConfig())
+    }
+
+    private fun build(config: HttpClientConfig): OkHttpClient {
+        val dispatcher = Dispatcher().apply {
+            maxRequests = config.maxRequests
+            maxRequestsPerHost = config.maxRequestsPerHost
+        }
+        return OkHttpClient.Builder()
+            .connectTimeout(config.connectTimeoutMillis, TimeUnit.MILLISECONDS)
+            .readTimeout(config.readTimeoutMillis, TimeUnit.MILLISECONDS)
+            .writeTimeout(config.writeTimeoutMillis, TimeUnit.MILLISECONDS)
+            .connectionPool(ConnectionPool(config.maxIdleConnections, config.keepAliveMillis, TimeUnit.MILLISECONDS))
+            .dispatcher(dispatcher)
+            .apply { if (!config.http2) protocols(listOf(Protocol.HTTP_1_1)) }
+            .eventListenerFactory { CallTimer() }
+            .build()
+    }
+
+    /**
+     * Times the phases of a single call and reports them to [FirebasePlatform.onHttpCall].
+     */
+    private class CallTimer : EventListener() {
+        private var callStart = 0L
+        private var dnsStart = 0L
+        private var dnsMillis = -1L
+        private var connectStart = 0L
+        private var connectMillis = -1L
+        private var tlsStart = 0L
+        private var tlsMillis = -1L
+        private var requestStart = 0L
+        private var ttfbMillis = -1L
+
+        override fun callStart(call: Call) {
+            callStart = System.nanoTime()
+        }
+
+        override fun dnsStart(call: Call, domainName: String) {
+            dnsStart = System.nanoTime()
+        }
+
+        override fun dnsEnd(call: Call, domainName: String, inetAddressList: List<InetAddress>) {
+            dnsMillis = millisSince(dnsStart)
+        }
+
+        override fun connectStart(call: Call, inetSocketAddress: InetSocketAddress, proxy: Proxy) {
+            connectStart = System.nanoTime()
+        }
+
+        override fun secureConnectStart(call: Call) {
+            tlsStart = System.nanoTime()
+        }
+
+        override fun secureConnectEnd(call: Call, handshake: Handshake?) {
+            tlsMillis = millisSince(tlsStart)
+        }
+
+        override fun connectEnd(call: Call, inetSocketAddress: InetSocketAddress, proxy: Proxy, protocol: Protocol?) {
+            connectMillis = millisSince(connectStart)
+        }
+
+        override fun requestHeadersStart(call: Call) {
+            requestStart = System.nanoTime()
+        }
+
+        override fun responseHeadersEnd(call: Call, response: Response) {
+            ttfbMillis = millisSince(requestStart)
+        }
+
+        override fun callEnd(call: Call) = report(call, null)
+
+        override fun callFailed(call: Call, ioe: IOException) = report(call, ioe)
+
+        private fun report(call: Call, failure: IOException?) {
+            val platform = FirebasePlatform.platformOrNull ?: return
+            // leave out the query, it carries the API key
+            val url = call.request().url().let { "${it.scheme()}://${it.host()}${it.encodedPath()}" }
+            platform.onHttpCall(
+                HttpCallTiming(
+                    method = call.request().method(),
+                    url = url,
+                    dnsMillis = dnsMillis,
+                    connectMillis = connectMillis,
+                    tlsMillis = tlsMillis,
+                    ttfbMillis = ttfbMillis,
+                    totalMillis = millisSince(callStart),
+                    reusedConnection = connectStart == 0L,
+                    failure = failure
+                )
+            )
+        }
+
+        private fun millisSince(start: Long) = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+    }
+}
@@ -0,0 +1,79 @@
+package com.google.firebase.auth
+
+import android.os.Handler
+import android.os.HandlerThread
+import android.util.Log
+import com.google.android.gms.tasks.TaskCompletionSource
+import kotlin.random.Random
+
+/**
+ * Refreshes the ID token of the signed-in user in the background shortly before
+ * [FirebaseAuth.getAccessToken] would consider it expired, so callers don't wait on the token
+ * round trip. Failed refreshes are retried with exponential backoff until one succeeds or the
+ * user signs out. The new token reaches the ID token listeners like any other refresh.
+ */
+internal class TokenRefresher(
+    private val auth: FirebaseAuth,
+    // Keeps a token that is already due, or issued with a short lifetime, from being refreshed back to back
+    private val minDelayMillis: Long = MIN_BACKOFF_MILLIS
+) {
+
+    companion object {
+        private const val TAG = "TokenRefresher"
+
+        // getAccessToken refreshes tokens within 5 minutes of expiry, refresh up to 5 minutes earlier
+        private const val REFRESH_BEFORE_EXPIRY_MILLIS = 5 * 60 * 1000L
+        private const val MAX_JITTER_MILLIS = 5 * 60 * 1000L
+
+        private const val MIN_BACKOFF_MILLIS = 30 * 1000L
+        private const val MAX_BACKOFF_MILLIS = 16 * 60 * 1000L
+    }
+
+    private val thread = HandlerThread("firebase-auth-token-refresher").apply { start() }
+    private val handler = Handler(thread.looper)
+    private val refresh = Runnable { refresh() }
+
+    private var scheduledUser: FirebaseUserImpl? = null
+    private var failures = 0
+
+    /**
+     * Schedules the refresh of the token of [user], replacing any pending one, or cancels it if null.
+     */
+    @Synchronized
+    fun schedule(user: FirebaseUserImpl?) {
+        handler.removeCallbacks(refresh)
+        scheduledUser = user
+        failures = 0
+        if (user != null) {
+            val expiresAt = user.createdAt + user.expiresIn * 1000L
+            val refreshAt = expiresAt - REFRESH_BEFORE_EXPIRY_MILLIS - Random.nextLong(MAX_JITTER_MILLIS)
+            handler.postDelayed(refresh, (refreshAt - System.currentTimeMillis()).coerceAtLeast(minDelayMillis))
+        }
+    }
+
+    fun cancel() = schedule(null)
+
+    fun shutdown() {
+        cancel()
+        thread.quitSafely()
+    }
+
+    private fun refresh() {
+        val user = synchronized(this) { scheduledUser } ?: return
+        val source = TaskCompletionSource<FirebaseUserImpl>()
+        // On success FirebaseAuth stores the new user, which schedules the next refresh
+        auth.refreshToken(user, source) { it }
+        source.task.addOnFailureListener { retry(user, it) }
+    }
+
+    @Synchronized
+    private fun retry(user: FirebaseUserImpl, e: Exception) {
+        // Signed out or refreshed some other way in the meantime
+        if (scheduledUser !== user) return
+        val backoff = (MIN_BACKOFF_MILLIS shl failures.coerceAtMost(5)).coerceAtMost(MAX_BACKOFF_MILLIS)
+        failures++
+        val delay = backoff + Random.nextLong(backoff / 2)
+        Log.w(TAG, "Failed to refresh token for ${user.uid}, retrying in ${delay}ms: $e")
+        handler.postDelayed(refresh, delay)
+    }
+}
@@ -0,0 +1,111 @@
+package com.google.firebase.auth
+
+import android.os.AsyncTask
+import com.google.firebase.FirebasePlatform
+import java.util.Collections
+import java.util.WeakHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Persists the signed-in user of a [FirebaseAuth] under [key] in the background, so a slow
+ * [FirebasePlatform.store] doesn't hold up the OkHttp thread that delivered the new state.
+ *
+ * Updates saved while a write is pending or running are coalesced into one write of the latest
+ * user, which is skipped if it serialises to what was last persisted. A null user clears the key.
+ * A failed write is retried with exponential backoff, together with any user saved in the meantime.
+ */
+internal class UserPersistence(private val key: String) {
+
+    companion object {
+        private const val MIN_RETRY_MILLIS = 1000L
+        private const val MAX_RETRY_MILLIS = 60 * 1000L
+
+        // Held weakly so the persistence of a deleted app can still be collected
+        private val instances = Collections.newSetFromMap(WeakHashMap<UserPersistence, Boolean>())
+
+        private val retryExecutor by lazy {
+            Executors.newSingleThreadScheduledExecutor {
+                Thread(it, "firebase-auth-persistence-retry").apply { isDaemon = true }
+            }
+        }
+
+        init {
+            // One hook for the whole process flushes every instance still alive
+            Runtime.getRuntime().addShutdownHook(
+                Thread({ synchronized(instances) { instances.toList() }.forEach { it.write() } }, "firebase-auth-flush")
+            )
+        }
+    }
+
+    private val lock = Any()
+    private var latest: FirebaseUserImpl? = null
+    private var dirty = false
+    private var writeScheduled = false
+
+    // Only touched by the writer, which holds writeLock while it writes.
+    private val writeLock = Any()
+    private var persisted: String? = null
+    private var failures = 0
+
+    init {
+        synchronized(instances) { instances.add(this) }
+    }
+
+    /**
+     * Reads the persisted user, remembering it so saving the same state again is a no-op.
+     */
+    fun retrieve(): String? = synchronized(writeLock) {
+        FirebasePlatform.firebasePlatform.retrieve(key).also { persisted = it }
+    }
+
+    fun save(user: FirebaseUserImpl?) {
+        synchronized(lock) {
+            latest = user
+            dirty = true
+            if (!writeScheduled) {
+                writeScheduled = true
+                AsyncTask.THREAD_POOL_EXECUTOR.execute(::write)
+            }
+        }
+    }
+
+    // Writes the latest user until no newer one was saved in the meantime.
+    private fun write() {
+        synchronized(writeLock) { writeLatest() }
+    }
+
+    private fun writeLatest() {
+        while (true) {
+            val user = synchronized(lock) {
+                if (!dirty) {
+                    writeScheduled = false
+                    return
+                }
+                dirty = false
+                latest
+            }
+            val value = user?.let { jsonParser.encodeToString(FirebaseUserImpl.serializer(), it) }
+            if (value == persisted) continue
+            try {
+                if (value == null) {
+                    FirebasePlatform.firebasePlatform.clear(key)
+                } else {
+                    FirebasePlatform.firebasePlatform.store(key, value)
+                }
+                persisted = value
+                failures = 0
+            } catch (e: RuntimeException) {
+                val delay = (MIN_RETRY_MILLIS shl failures.coerceAtMost(6)).coerceAtMost(MAX_RETRY_MILLIS)
+                failures++
+                FirebasePlatform.firebasePlatform.log("Failed to persist the signed-in user, retrying in ${delay}ms: $e")
+                // A user saved in the meantime is written right away, otherwise this one is written again later
+                val retry = synchronized(lock) { (!dirty).also { dirty = true } }
+                if (retry) {
+                    retryExecutor.schedule({ AsyncTask.THREAD_POOL_EXECUTOR.execute(::write) }, delay, TimeUnit.MILLISECONDS)
+                    return
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package org.sqlite.core
+
+import org.sqlite.Collation
+import java.text.CollationElementIterator
+import java.text.CollationKey
+import java.text.Collator
+import java.text.RuleBasedCollator
+import java.util.Locale
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.math.sign
+
+/**
+ * The localized collation of a connection, ordering text as the [Collator] of its locale does.
+ *
+ * Each connection registers its own instance, with its own collator and cache, and runs one statement
+ * at a time so neither is shared between threads. Strings of printable ASCII are compared from a table
+ * of the collation elements of their characters, when the locale has no contractions or expansions
+ * among them and ignores none of their characters. Other strings are compared by their [CollationKey]s,
+ * cached for the most recent strings since an ORDER BY compares each value several times. Keys order
+ * strings with ignored characters consistently, where [Collator.compare] can disagree with itself.
+ */
+internal class LocalizedCollation(locale: Locale) : Collation() {
+
+    private val collator = Collator.getInstance(locale)
+    private val orders = asciiOrders.computeIfAbsent(locale) { buildAsciiOrders(collator) }
+    private val strength = collator.strength
+
+    private val keys = object : LinkedHashMap<String, CollationKey>(CACHED_KEYS, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, CollationKey>) =
+            size > CACHED_KEYS
+    }
+
+    public override fun xCompare(str1: String, str2: String): Int = when {
+        str1 == str2 -> 0
+        orders !== NO_ORDERS && isSimple(orders, str1) && isSimple(orders, str2) ->
+            compareAscii(orders, strength, str1, str2)
+        else -> key(str1).compareTo(key(str2))
+    }
+
+    /** Drops the cached keys, when the process is short of memory. */
+    fun releaseKeys() = keys.clear()
+
+    private fun key(str: String): CollationKey =
+        if (str.length > MAX_CACHED_LENGTH) collator.getCollationKey(str)
+        else keys.getOrPut(str) { collator.getCollationKey(str) }
+
+    private companion object {
+        const val FIRST_ASCII = ' '
+        const val LAST_ASCII = '~'
+        const val CACHED_KEYS = 1024
+        const val MAX_CACHED_LENGTH = 64
+
+        // Marks the locales whose ASCII characters can't be compared one collation element each.
+        val NO_ORDERS = IntArray(0)
+
+        // The collation element of each printable ASCII character of a locale, 0 for the ones it ignores.
+        val asciiOrders = ConcurrentHashMap<Locale, IntArray>()
+
+        fun isSimple(orders: IntArray, str: String) =
+            str.all { it in FIRST_ASCII..LAST_ASCII && orders[it - FIRST_ASCII] != 0 }
+
+        /*
+        ** The same result as RuleBasedCollator.compare() for strings of characters with one
+        ** collation element each and the same secondary order: the first primary difference,
+        ** otherwise the longer string, otherwise the first tertiary difference.
+        */
+        fun compareAscii(orders: IntArray, strength: Int, str1: String, str2: String): Int {
+            var tertiary = 0
+            for (i in 0 until minOf(str1.length, str2.length)) {
+                val order1 = orders[str1[i] - FIRST_ASCII]
+                val order2 = orders[str2[i] - FIRST_ASCII]
+                if (order1 == order2) continue
+                val primary = CollationElementIterator.primaryOrder(order1)
+                    .compareTo(CollationElementIterator.primaryOrder(order2))
+                if (primary != 0) return primary
+                if (tertiary == 0) {
+                    tertiary = CollationElementIterator.tertiaryOrder(order1)
+                        .compareTo(CollationElementIterator.tertiaryOrder(order2))
+                }
+            }
+            if (str1.length != str2.length) return str1.length.compareTo(str2.length)
+            return if (strength >= Collator.TERTIARY) tertiary else 0
+        }
+
+        fun buildAsciiOrders(collator: Collator): IntArray {
+            if (collator !is RuleBasedCollator || hasAsciiContraction(collator.rules)) return NO_ORDERS
+            val orders = IntArray(LAST_ASCII - FIRST_ASCII + 1)
+            for (ch in FIRST_ASCII..LAST_ASCII) {
+                val elements = collator.getCollationElementIterator(ch.toString())
+                val order = elements.next()
+                // Characters ignored at the primary level, such as spaces, leave their string to the collator.
+                if (order != CollationElementIterator.NULLORDER &&
+                    elements.next() == CollationElementIterator.NULLORDER &&
+                    CollationElementIterator.primaryOrder(order) != 0
+                ) orders[ch - FIRST_ASCII] = order
+            }
+            val simple = (FIRST_ASCII..LAST_ASCII).filter { orders[it - FIRST_ASCII] != 0 }.map { it.toString() }
+            if (simple.map { CollationElementIterator.secondaryOrder(orders[it[0] - FIRST_ASCII]) }.distinct().size > 1) {
+                return NO_ORDERS
+            }
+            val strength = collator.strength
+            for (str1 in simple) {
+                for (str2 in simple) {
+                    if (compareAscii(orders, strength, str1, str2).sign != collator.compare(str1, str2)) {
+                        return NO_ORDERS
+                    }
+                }
+            }
+            return orders
+        }
+
+        /*
+        ** Whether the rules contract a sequence of printable ASCII characters into one collation
+        ** element, such as "ch" in Czech, parsed as java.text.PatternEntry does.
+        */
+        fun hasAsciiContraction(rules: String): Boolean {
+            val chars = StringBuilder()
+            var reset = true
+            var inChars = true
+            var inQuote = false
+            fun isAsciiContraction(): Boolean {
+                val length = if (chars.length > 1 && chars.last() in "@!") chars.length - 1 else chars.length
+                return !reset && length > 1 && (0 until length).all { chars[it] in FIRST_ASCII..LAST_ASCII }
+            }
+            var i = 0
+            while (i < rules.length) {
+                val ch = rules[i]
+                if (inQuote) {
+                    if (ch == '\'') inQuote = false else if (inChars) chars.append(ch)
+                } else when (ch) {
+                    '=', ',', ';', '<', '&' -> {
+                        if (isAsciiContraction()) return true
+                        chars.setLength(0)
+                        inChars = true
+                        reset = ch == '&'
+                    }
+                    '\t', '\n', '\u000c', '\r', ' ' -> Unit
+                    '/' -> inChars = false
+                    '\'' -> {
+                        inQuote = true
+                        if (++i < rules.length && inChars) chars.append(rules[i])
+                    }
+                    else -> if (inChars) chars.append(ch)
+                }
+                i++
+            }
+            return isAsciiContraction()
+        }
+    }
+}
@@ -1,14 +1,28 @@
 package org.sqlite.core
 
 import android.database.CursorWindow
+import android.database.DatabaseUtils
+import android.database.sqlite.SQLiteBlobTooBigException
+import android.database.sqlite.SQLiteConstraintException
 import android.database.sqlite.SQLiteCustomFunction
 import android.database.sqlite.SQLiteDatabase
-import org.sqlite.Collation
+import android.database.sqlite.SQLiteDatabaseCorruptException
+import android.database.sqlite.SQLiteDatabaseLockedException
+import android.database.sqlite.SQLiteDatatypeMismatchException
+import android.database.sqlite.SQLiteDiskIOException
+import android.database.sqlite.SQLiteException
+import android.database.sqlite.SQLiteFullException
+import android.database.sqlite.SQLiteReadOnlyDatabaseException
+import android.database.sqlite.SQLiteTableLockedException
+import android.os.OperationCanceledException
 import org.sqlite.Function
+import org.sqlite.ProgressHandler
 import org.sqlite.SQLiteConfig
 import org.sqlite.SQLiteOpenMode
-import java.text.Collator
+import java.sql.SQLException
+import java.util.Collections
 import java.util.Locale
+import java.util.WeakHashMap
 
 fun Open(path: String, openFlags: Int, label: String, enableTrace: Boolean, enableProfile: Boolean): NativeDB {
     NativeDB.load()
@@ -23,16 +37,21 @@ fun Open(path: String, openFlags: Int, label: String, enableTrace: Boolean, enab
                     db.config.isExplicitReadOnly = true
                     SQLiteOpenMode.READONLY.flag
                 }
-                SQLiteDatabase.OPEN_READWRITE -> SQLiteOpenMode.READWRITE.flag
+                /* Applied by SQLiteConnection once the database is open */
+                SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING, SQLiteDatabase.NO_LOCALIZED_COLLATORS -> 0
                 else -> TODO("Unknown openFlag ${it.toString(16)}")
             }
         }
-        .reduce { acc, flag -> acc or flag }
-    db.open(path, flags)
+        .fold(0) { acc, flag -> acc or flag }
+    db.open(path, if (flags == 0) SQLiteOpenMode.READWRITE.flag else flags)
     return db
 }
 
-fun Close(connectionPtr: NativeDB) = connectionPtr._close()
+fun Close(connectionPtr: NativeDB) {
+    cancelHandlers.remove(connectionPtr)
+    localizedCollations.remove(connectionPtr)
+    connectionPtr._close()
+}
 
 fun RegisterCustomFunction(
     connectionPtr: NativeDB,
@@ -48,14 +67,16 @@ fun RegisterCustomFunction(
     connectionPtr.create_function(function.name, callback, function.numArgs, 0)
 }
 
+private val localizedCollations = Collections.synchronizedMap(WeakHashMap<NativeDB, LocalizedCollation>())
+
 fun RegisterLocalizedCollators(connectionPtr: NativeDB, locale: String) {
-    val collator = Collator.getInstance(Locale.forLanguageTag(locale))
-    connectionPtr.create_collation(
-        locale,
-        object : Collation() {
-            override fun xCompare(str1: String?, str2: String?) = collator.compare(str1, str2)
-        }
-    )
+    val collation = LocalizedCollation(Locale.forLanguageTag(locale.replace('_', '-')))
+    localizedCollations[connectionPtr] = collation
+    connectionPtr.create_collation(locale, collation)
+}
+
+fun TrimLocalizedCollators(connectionPtr: NativeDB) {
+    localizedCollations[connectionPtr]?.releaseKeys()
 }
 
 fun PrepareStatement(connectionPtr: NativeDB, sql: String) =
@@ -65,7 +86,68 @@ fun FinalizeStatement(connectionPtr: NativeDB, statementPtr: Long) = connectionP
 
 fun GetParameterCount(connectionPtr: NativeDB, statementPtr: Long): Int = connectionPtr.bind_parameter_count(statementPtr)
 
-fun IsReadOnly(connectionPtr: NativeDB, statementPtr: Long): Boolean = connectionPtr.config.isExplicitReadOnly
+/*
+** sqlite-jdbc does not expose sqlite3_stmt_readonly() so work it out from the SQL.
+** A SELECT never writes to the database. A PRAGMA may change the state of the
+** connection it runs on, so it is never treated as read-only to keep it on the
+** primary connection. Anything else is read-only if its bytecode does not start a
+** write transaction or otherwise modify the database, as sqlite3_stmt_readonly()
+** would report.
+*/
+fun IsReadOnly(connectionPtr: NativeDB, statementPtr: Long, sql: String): Boolean =
+    when (DatabaseUtils.getSqlStatementType(sql)) {
+        DatabaseUtils.STATEMENT_SELECT -> true
+        DatabaseUtils.STATEMENT_OTHER -> !explainWrites(connectionPtr, sql)
+        else -> false
+    }
+
+private val writeOpcodes = setOf("OpenWrite", "Vacuum", "JournalMode", "Checkpoint", "VUpdate")
+
+private fun explainWrites(connectionPtr: NativeDB, sql: String): Boolean {
+    val explainPtr = try {
+        connectionPtr.prepare_utf8(NativeDB.stringToUtf8ByteArray("EXPLAIN $sql"))
+    } catch (e: SQLException) {
+        return true
+    }
+    try {
+        /* Columns are: addr, opcode, p1, p2, p3, p4, p5, comment */
+        while (connectionPtr.step(explainPtr) == Codes.SQLITE_ROW) {
+            val opcode = connectionPtr.column_text(explainPtr, 1)
+            if (opcode in writeOpcodes ||
+                (opcode == "Transaction" && connectionPtr.column_long(explainPtr, 3) != 0L)
+            ) {
+                return true
+            }
+        }
+        return false
+    } finally {
+        connectionPtr.finalize(explainPtr)
+    }
+}
+
+/*
+** The plan SQLite chooses for the statement, as reported by EXPLAIN QUERY PLAN, one step per
+** line indented under its parent. The parameters are left unbound, which SQLite plans for as
+** it would for any other value.
+*/
+fun ExplainQueryPlan(connectionPtr: NativeDB, sql: String): String {
+    val explainPtr = connectionPtr.prepare_utf8(NativeDB.stringToUtf8ByteArray("EXPLAIN QUERY PLAN $sql"))
+    try {
+        /* Columns are: id, parent, notused, detail */
+        val depths = HashMap<Long, Int>()
+        val plan = StringBuilder()
+        while (connectionPtr.step(explainPtr) == Codes.SQLITE_ROW) {
+            val depth = (depths[connectionPtr.column_long(explainPtr, 1)] ?: -1) + 1
+            depths[connectionPtr.column_long(explainPtr, 0)] = depth
+            if (plan.isNotEmpty()) plan.append('\n')
+            repeat(depth) { plan.append("  ") }
+            plan.append(connectionPtr.column_text(explainPtr, 3))
+        }
+        return plan.toString()
+    } finally {
+        connectionPtr.finalize(explainPtr)
+    }
+}
 
 fun GetColumnCount(connectionPtr: NativeDB, statementPtr: Long): Int = connectionPtr.column_count(statementPtr)
 
@@ -91,47 +173,134 @@ fun ResetStatementAndClearBindings(connectionPtr: NativeDB, statementPtr: Long)
     connectionPtr.clear_bindings(statementPtr)
 }
 
-fun Execute(connectionPtr: NativeDB, statementPtr: Long) = connectionPtr.step(statementPtr)
+fun Execute(connectionPtr: NativeDB, statementPtr: Long) = step(connectionPtr, statementPtr)
 
 fun ExecuteForLong(connectionPtr: NativeDB, statementPtr: Long): Long {
-    connectionPtr.step(statementPtr)
+    step(connectionPtr, statementPtr)
     return connectionPtr.column_long(statementPtr, 0)
 }
 
 fun ExecuteForString(connectionPtr: NativeDB, statementPtr: Long): String? {
-    connectionPtr.step(statementPtr)
+    step(connectionPtr, statementPtr)
     return connectionPtr.column_text(statementPtr, 0)
 }
 
+fun ExecuteForBlob(connectionPtr: NativeDB, statementPtr: Long): ByteArray? {
+    step(connectionPtr, statementPtr)
+    return connectionPtr.column_blob(statementPtr, 0)
+}
+
 fun GetDbLookaside(connectionPtr: NativeDB): Int = 0
 
-fun Cancel(connectionPtr: NativeDB): Nothing = TODO()
+/*
+** Number of virtual machine instructions between checks of the cancellation flag.
+** Each check calls back into the JVM so this is coarser than Android's 4, which
+** still stops a long scan promptly.
+*/
+private const val CANCEL_CHECK_INSTRUCTIONS = 1000
 
-fun ResetCancel(connectionPtr: NativeDB, cancelable: Boolean): Nothing = TODO()
+/*
+** Progress handler that interrupts the statement executing on its connection once
+** cancelled. The flag is set from whichever thread cancels the signal, so it must not
+** touch the NativeDB, whose methods are synchronized for the duration of a step.
+*/
+private class CancelHandler : ProgressHandler() {
+    @Volatile
+    var canceled = false
+
+    override fun progress() = if (canceled) 1 else 0
+}
+
+private val cancelHandlers = Collections.synchronizedMap(WeakHashMap<NativeDB, CancelHandler>())
+
+fun Cancel(connectionPtr: NativeDB) {
+    cancelHandlers[connectionPtr]?.canceled = true
+}
+
+fun ResetCancel(connectionPtr: NativeDB, cancelable: Boolean) {
+    if (cancelable) {
+        val handler = cancelHandlers.getOrPut(connectionPtr) { CancelHandler() }
+        handler.canceled = false
+        connectionPtr.register_progress_handler(CANCEL_CHECK_INSTRUCTIONS, handler)
+    } else {
+        cancelHandlers[connectionPtr]?.canceled = false
+        connectionPtr.clear_progress_handler()
+    }
+}
+
+/*
+** Step the statement, turning an interruption caused by Cancel() into the
+** OperationCanceledException that Android throws for SQLITE_INTERRUPT.
+*/
+private fun step(connectionPtr: NativeDB, statementPtr: Long): Int {
+    val rc = connectionPtr.step(statementPtr)
+    if (rc == Codes.SQLITE_INTERRUPT && cancelHandlers[connectionPtr]?.canceled == true) {
+        throw OperationCanceledException()
+    }
+    return rc
+}
 
 fun HasCodec(): Boolean = false
 
 fun ExecuteForBlobFileDescriptor(connectionPtr: NativeDB, statementPtr: Long): Int = TODO()
 
 fun ExecuteForChangedRowCount(connectionPtr: NativeDB, statementPtr: Long): Int {
-    connectionPtr.step(statementPtr)
+    step(connectionPtr, statementPtr)
     return connectionPtr.changes().toInt()
 }
 
+/*
+** Execute one row of arguments of a batch, returning the number of rows it changed or, given the
+** statement of "SELECT last_insert_rowid()", the row ID it inserted and -1 if it inserted none.
+** Unlike the single-row calls a failed step is thrown, so the batch stops at the failing row and
+** its transaction rolls back.
+*/
+fun ExecuteBatchRow(connectionPtr: NativeDB, statementPtr: Long, rowIdStatementPtr: Long): Long {
+    val rc = step(connectionPtr, statementPtr)
+    if (rc != Codes.SQLITE_DONE && rc != Codes.SQLITE_ROW) throwSqliteException(connectionPtr, rc)
+    val changes = connectionPtr.changes().toLong()
+    if (rowIdStatementPtr == 0L) return changes
+    if (changes == 0L) return -1
+    connectionPtr.reset(rowIdStatementPtr)
+    connectionPtr.step(rowIdStatementPtr)
+    return connectionPtr.column_long(rowIdStatementPtr, 0)
+}
+
+/*
+** Throw the SQLiteException subclass Android throws for the result code, as
+** throw_sqlite3_exception() in android_database_SQLiteCommon.cpp does.
+*/
+private fun throwSqliteException(connectionPtr: NativeDB, rc: Int): Nothing {
+    val message = "${connectionPtr.errmsg()} (code $rc)"
+    throw when (rc and 0xff) {
+        Codes.SQLITE_CONSTRAINT -> SQLiteConstraintException(message)
+        Codes.SQLITE_FULL -> SQLiteFullException(message)
+        Codes.SQLITE_CORRUPT -> SQLiteDatabaseCorruptException(message)
+        Codes.SQLITE_BUSY -> SQLiteDatabaseLockedException(message)
+        Codes.SQLITE_LOCKED -> SQLiteTableLockedException(message)
+        Codes.SQLITE_READONLY -> SQLiteReadOnlyDatabaseException(message)
+        Codes.SQLITE_IOERR -> SQLiteDiskIOException(message)
+        Codes.SQLITE_TOOBIG -> SQLiteBlobTooBigException(message)
+        Codes.SQLITE_MISMATCH -> SQLiteDatatypeMismatchException(message)
+        else -> SQLiteException(message)
+    }
+}
+
 fun ExecuteForLastInsertedRowId(connectionPtr: NativeDB, statementPtr: Long): Long {
-    connectionPtr.step(statementPtr)
+    step(connectionPtr, statementPtr)
     return connectionPtr.column_long(statementPtr, 0)
 }
 
 fun ExecuteForCursorWindow(connectionPtr: NativeDB, statementPtr: Long, win: CursorWindow, startPos: Int, iRowRequired: Int, countAllRows: Boolean): Long {
-    /* Set the number of columns in the window */
+    /* Clear the window and set the number of columns in it */
+    win.clear()
     if (!win.setNumColumns(connectionPtr.column_count(statementPtr))) return 0
 
     var nRow = 0
     var iStart = startPos
     var bOk = true
 
-    while (connectionPtr.step(statementPtr) == Codes.SQLITE_ROW) {
+    while (step(connectionPtr, statementPtr) == Codes.SQLITE_ROW) {
         /* Only copy in rows that occur at or after row index iStart. */
         if ((nRow >= iStart) && bOk) {
             bOk = copyRowToWindow(connectionPtr, win, (nRow - iStart), statementPtr)
@@ -140,6 +309,7 @@ fun ExecuteForCursorWindow(connectionPtr: NativeDB, statementPtr: Long, win: Cur
                 ** not successfully added before this happened, clear the CursorWindow
                 ** and try to add the current row again.  */
                 if (nRow <= iRowRequired) {
+                    win.clear()
                     bOk = win.setNumColumns(connectionPtr.column_count(statementPtr))
                     if (!bOk) {
                         connectionPtr.reset(statementPtr)
@@ -151,8 +321,12 @@ fun ExecuteForCursorWindow(connectionPtr: NativeDB, statementPtr: Long, win: Cur
 
                 /* If the CursorWindow is still full and the countAllRows flag is not
                 ** set, break out of the loop here. If countAllRows is set, continue
-                ** so as to set variable nRow correctly.  */
-                if (!bOk && !countAllRows) break
+                ** so as to set variable nRow correctly. As on Android, the row that
+                ** did not fit is counted so the caller can tell the results go on.  */
+                if (!bOk && !countAllRows) {
+                    nRow++
+                    break
+                }
             }
         }
 
@@ -178,22 +352,27 @@ fun ExecuteForCursorWindow(connectionPtr: NativeDB, statementPtr: Long, win: Cur
 */
 fun copyRowToWindow(connectionPtr: NativeDB, win: CursorWindow, iRow: Int, statementPtr: Long): Boolean {
     val nCol = connectionPtr.column_count(statementPtr)
-    val i = 0
-    var bOk = false
 
-    bOk = win.allocRow()
+    if (!win.allocRow()) return false
     for (i in 0 until nCol) {
-        when (val type = connectionPtr.column_type(statementPtr, i)) {
+        val bOk = when (val type = connectionPtr.column_type(statementPtr, i)) {
             Codes.SQLITE_NULL -> win.putNull(iRow, i)
             Codes.SQLITE_INTEGER -> win.putLong(connectionPtr.column_long(statementPtr, i), iRow, i)
             Codes.SQLITE_FLOAT -> win.putDouble(connectionPtr.column_double(statementPtr, i), iRow, i)
-            Codes.SQLITE_TEXT -> win.putString(connectionPtr.column_text(statementPtr, i), iRow, i)
-            Codes.SQLITE_BLOB -> win.putBlob(connectionPtr.column_blob(statementPtr, i), iRow, i)
+            /* Copy the UTF-8 text straight out of SQLite instead of decoding it to a String */
+            Codes.SQLITE_TEXT -> connectionPtr.column_text_utf8(statementPtr, i)
+                ?.let { win.putStringUtf8(it, iRow, i) }
+                ?: win.putString("", iRow, i)
+            Codes.SQLITE_BLOB -> win.putBlob(connectionPtr.column_blob(statementPtr, i) ?: ByteArray(0), iRow, i)
             else -> TODO("Unknown column type: $type")
         }
 
-        if (!bOk) win.freeLastRow()
+        /* The window is full, give back the partially copied row */
+        if (!bOk) {
+            win.freeLastRow()
+            return false
+        }
     }
 
-    return bOk
+    return true
 }
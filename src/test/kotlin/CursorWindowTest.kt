@@ -0,0 +1,86 @@
+import android.database.Cursor
+import android.database.CursorWindow
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+
+class CursorWindowTest {
+
+    @Test
+    fun `should read back the values that were put`() {
+        val window = CursorWindow("test")
+        assertTrue(window.setNumColumns(5))
+        assertTrue(window.allocRow())
+        assertTrue(window.putLong(42, 0, 0))
+        assertTrue(window.putDouble(1.5, 0, 1))
+        assertTrue(window.putString("hello", 0, 2))
+        assertTrue(window.putBlob(byteArrayOf(1, 2, 3), 0, 3))
+        assertTrue(window.putNull(0, 4))
+
+        assertEquals(42L, window.getLong(0, 0))
+        assertEquals(1.5, window.getDouble(0, 1), 0.0)
+        assertEquals("hello", window.getString(0, 2))
+        assertArrayEquals(byteArrayOf(1, 2, 3), window.getBlob(0, 3))
+        assertEquals(Cursor.FIELD_TYPE_NULL, window.getType(0, 4))
+        window.close()
+    }
+
+    @Test
+    fun `should convert between numeric field types`() {
+        val window = CursorWindow("test")
+        assertTrue(window.setNumColumns(3))
+        assertTrue(window.allocRow())
+        assertTrue(window.putLong(7, 0, 0))
+        assertTrue(window.putDouble(2.75, 0, 1))
+        assertTrue(window.putString("12.5", 0, 2))
+
+        assertEquals(Cursor.FIELD_TYPE_INTEGER, window.getType(0, 0))
+        assertEquals(7.0, window.getDouble(0, 0), 0.0)
+        assertEquals(Cursor.FIELD_TYPE_FLOAT, window.getType(0, 1))
+        assertEquals(2, window.getInt(0, 1))
+        assertEquals(12L, window.getLong(0, 2))
+        assertEquals(12.5, window.getDouble(0, 2), 0.0)
+        window.close()
+    }
+
+    @Test
+    fun `should stop allocating rows once the window is full`() {
+        val window = CursorWindow("test", 1024)
+        assertTrue(window.setNumColumns(2))
+        var rows = 0
+        while (window.allocRow()) {
+            if (!window.putLong(rows.toLong(), rows, 0) || !window.putString("row $rows", rows, 1)) {
+                window.freeLastRow()
+                break
+            }
+            rows++
+        }
+
+        assertTrue(rows > 0)
+        assertEquals(rows, window.numRows)
+        assertEquals("row ${rows - 1}", window.getString(rows - 1, 1))
+        assertFalse(window.putBlob(ByteArray(2048), 0, 1))
+        window.close()
+    }
+
+    @Test
+    fun `should expose blobs as read-only views over the window`() {
+        val window = CursorWindow("test")
+        assertTrue(window.setNumColumns(2))
+        assertTrue(window.allocRow())
+        val source = ByteBuffer.wrap(byteArrayOf(9, 1, 2, 3)).position(1) as ByteBuffer
+        assertTrue(window.putBlob(source, 0, 0))
+        assertTrue(window.putStringUtf8(ByteBuffer.wrap("héllo".toByteArray()), 0, 1))
+
+        assertEquals(1, source.position())
+        val view = window.getBlobBuffer(0, 0)
+        assertTrue(view.isReadOnly)
+        assertEquals(3, view.remaining())
+        assertArrayEquals(byteArrayOf(1, 2, 3), ByteArray(3).also { view.get(it) })
+        assertEquals("héllo", window.getString(0, 1))
+        window.close()
+    }
+}
@@ -0,0 +1,189 @@
+import com.google.android.gms.tasks.Task
+import com.google.firebase.auth.FirebaseAuth
+import com.google.firebase.auth.FirebaseUserImpl
+import com.google.firebase.auth.GetTokenResult
+import com.google.firebase.auth.TokenRefresher
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.tasks.await
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertThrows
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.net.InetSocketAddress
+import java.util.Base64
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Runs against a local stand-in for the Auth REST API that holds every token refresh until it is
+ * released, so concurrent refreshes are sure to overlap.
+ */
+class FirebaseAuthTokenRefreshTest : FirebaseTest() {
+
+    private val auth by lazy { FirebaseAuth.getInstance(app) }
+    private val server = HttpServer.create(InetSocketAddress("localhost", 0), 0)
+    private val refreshRequests = AtomicInteger()
+
+    private val refreshReceived = CountDownLatch(1)
+    private val releaseRefresh = CountDownLatch(1)
+
+    @Volatile
+    private var failRefresh = false
+
+    @Volatile
+    private var malformedRefresh = false
+
+    @Volatile
+    private var expiresIn = 3600
+
+    @Before
+    fun startServer() {
+        server.executor = Executors.newCachedThreadPool()
+        server.createContext("/") { exchange ->
+            when {
+                exchange.requestURI.path.endsWith("accounts:signUp") ->
+                    respond(exchange, """{"idToken":"${token(0)}","refreshToken":"refresh","expiresIn":$expiresIn,"localId":"uid"}""")
+                exchange.requestURI.path.endsWith("v1/token") -> {
+                    val n = refreshRequests.incrementAndGet()
+                    refreshReceived.countDown()
+                    releaseRefresh.await(10, TimeUnit.SECONDS)
+                    if (failRefresh) {
+                        exchange.close()
+                    } else if (malformedRefresh) {
+                        respond(exchange, "{")
+                    } else {
+                        respond(exchange, """{"id_token":"${token(n)}","refresh_token":"refresh","expires_in":$expiresIn,"user_id":"uid"}""")
+                    }
+                }
+                else -> {
+                    exchange.sendResponseHeaders(404, -1)
+                    exchange.close()
+                }
+            }
+        }
+        server.start()
+        auth.useEmulator("localhost", server.address.port)
+    }
+
+    @After
+    fun stopServer() {
+        releaseRefresh.countDown()
+        server.stop(0)
+    }
+
+    @Test
+    fun `should share one refresh between concurrent callers`() = runBlocking {
+        auth.signInAnonymously().await()
+        val before = auth.getTokenRefreshStats()
+
+        val callers = Executors.newFixedThreadPool(CALLERS)
+        val start = CountDownLatch(1)
+        val tasks = (1..CALLERS).map {
+            callers.submit<Task<GetTokenResult>> {
+                start.await()
+                auth.getAccessToken(true)
+            }
+        }
+        start.countDown()
+        val results = tasks.map { it.get(10, TimeUnit.SECONDS) }
+        callers.shutdown()
+        assertTrue(refreshReceived.await(10, TimeUnit.SECONDS))
+        releaseRefresh.countDown()
+
+        val tokens = results.map { it.await().token }
+        assertEquals(1, refreshRequests.get())
+        assertEquals(List(CALLERS) { token(1) }, tokens)
+        val stats = auth.getTokenRefreshStats()
+        assertEquals(before.refreshes + 1, stats.refreshes)
+        assertEquals(before.coalesced + CALLERS - 1, stats.coalesced)
+    }
+
+    @Test
+    fun `should retry a refresh after the one in flight failed`() = runBlocking {
+        auth.signInAnonymously().await()
+        val before = auth.getTokenRefreshStats()
+
+        failRefresh = true
+        val failed = auth.getAccessToken(true)
+        val joined = auth.getAccessToken(true)
+        releaseRefresh.countDown()
+        assertThrows(Exception::class.java) { runBlocking { failed.await() } }
+        assertThrows(Exception::class.java) { runBlocking { joined.await() } }
+        assertEquals(before.refreshes + 1, auth.getTokenRefreshStats().refreshes)
+
+        failRefresh = false
+        val requests = refreshRequests.get()
+        val refreshed = auth.getAccessToken(true).await().token
+        assertEquals(token(requests + 1), refreshed)
+        assertEquals(before.refreshes + 2, auth.getTokenRefreshStats().refreshes)
+    }
+
+    @Test
+    fun `should fail the callers of a refresh whose response can't be read`() = runBlocking {
+        auth.signInAnonymously().await()
+        val before = auth.getTokenRefreshStats()
+
+        malformedRefresh = true
+        val failed = auth.getAccessToken(true)
+        val joined = auth.getAccessToken(true)
+        releaseRefresh.countDown()
+        assertThrows(Exception::class.java) { runBlocking { failed.await() } }
+        assertThrows(Exception::class.java) { runBlocking { joined.await() } }
+
+        malformedRefresh = false
+        val requests = refreshRequests.get()
+        assertEquals(token(requests + 1), auth.getAccessToken(true).await().token)
+        assertEquals(before.refreshes + 2, auth.getTokenRefreshStats().refreshes)
+    }
+
+    @Test
+    fun `should refresh a token that is already due in the background after the minimum delay`() = runBlocking {
+        // Within the 5 minutes before expiry in which tokens are refreshed
+        expiresIn = 60
+        releaseRefresh.countDown()
+        auth.signInAnonymously().await()
+
+        val refresher = TokenRefresher(auth, minDelayMillis = MIN_DELAY_MILLIS)
+        try {
+            val scheduled = System.nanoTime()
+            refresher.schedule(auth.currentUser as FirebaseUserImpl)
+            assertTrue(refreshReceived.await(10, TimeUnit.SECONDS))
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - scheduled) >= MIN_DELAY_MILLIS)
+
+            val deadline = System.currentTimeMillis() + 10_000
+            while (auth.currentUser?.let { (it as FirebaseUserImpl).idToken } != token(1) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50)
+            }
+            assertEquals(token(1), (auth.currentUser as FirebaseUserImpl).idToken)
+            assertEquals(1, refreshRequests.get())
+        } finally {
+            refresher.shutdown()
+        }
+    }
+
+    private fun respond(exchange: HttpExchange, body: String) {
+        val bytes = body.toByteArray()
+        exchange.responseHeaders.add("Content-Type", "application/json")
+        exchange.sendResponseHeaders(200, bytes.size.toLong())
+        exchange.responseBody.use { it.write(bytes) }
+    }
+
+    // An unsigned ID token carrying the claims the SDK checks.
+    private fun token(n: Int): String {
+        val encoder = Base64.getUrlEncoder().withoutPadding()
+        val header = encoder.encodeToString("""{"alg":"none"}""".toByteArray())
+        val payload = encoder.encodeToString("""{"aud":"fir-java-sdk","user_id":"uid","n":$n}""".toByteArray())
+        return "$header.$payload."
+    }
+
+    companion object {
+        private const val CALLERS = 8
+        private const val MIN_DELAY_MILLIS = 500L
+    }
+}
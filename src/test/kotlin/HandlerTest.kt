@@ -0,0 +1,60 @@
+import android.os.Handler
+import android.os.HandlerThread
+import android.os.Looper
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class HandlerTest {
+
+    private lateinit var thread: HandlerThread
+    private lateinit var handler: Handler
+
+    @Before
+    fun setUp() {
+        thread = HandlerThread("test").apply { start() }
+        handler = Handler(thread.looper)
+    }
+
+    @After
+    fun tearDown() {
+        thread.quit()
+    }
+
+    @Test
+    fun `should run callbacks in order of their due time on the looper thread`() {
+        val order = mutableListOf<String>()
+        val done = CountDownLatch(1)
+        handler.postDelayed({ order.add("later"); done.countDown() }, 50)
+        handler.post { order.add("first") }
+        handler.post {
+            assertSame(thread, Thread.currentThread())
+            assertSame(thread.looper, Looper.myLooper())
+            order.add("second")
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+        assertEquals(listOf("first", "second", "later"), order)
+    }
+
+    @Test
+    fun `should not run removed callbacks`() {
+        var ran = false
+        val removed = Runnable { ran = true }
+        val done = CountDownLatch(1)
+        handler.postDelayed(removed, 20)
+        assertTrue(handler.hasCallbacks(removed))
+        handler.removeCallbacks(removed)
+        assertFalse(handler.hasCallbacks(removed))
+        handler.postDelayed({ done.countDown() }, 100)
+
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+        assertFalse(ran)
+    }
+}
@@ -0,0 +1,52 @@
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.sqlite.core.LocalizedCollation
+import java.text.Collator
+import java.util.Locale
+import kotlin.math.sign
+import kotlin.random.Random
+
+class LocalizedCollationTest {
+
+    private val locales = listOf("en-US", "de", "fr", "cs", "sv").map(Locale::forLanguageTag)
+
+    @Test
+    fun `should order ASCII strings as their collation keys do`() {
+        // Few distinct characters, so strings often share prefixes and differ only in case
+        val strings = randomStrings("aAbBcChHsSvVwWzZ09")
+        locales.forEach { assertOrderedAsKeys(it, strings) }
+    }
+
+    @Test
+    fun `should order strings with spaces and punctuation as their collation keys do`() {
+        val strings = randomStrings("aAbB -.,'_!") + listOf("a b", "ab", "a-b", "a.b", "A b", "a  b", " ab", "ab ")
+        locales.forEach { assertOrderedAsKeys(it, strings) }
+    }
+
+    @Test
+    fun `should sort the Czech ch after h`() {
+        val collation = LocalizedCollation(Locale.forLanguageTag("cs"))
+
+        assertTrue(collation.xCompare("chleba", "hrad") > 0)
+        assertTrue(collation.xCompare("chleba", "izba") < 0)
+    }
+
+    private fun randomStrings(alphabet: String): List<String> {
+        val random = Random(42)
+        return List(200) {
+            String(CharArray(random.nextInt(1, 7)) { alphabet[random.nextInt(alphabet.length)] })
+        }
+    }
+
+    private fun assertOrderedAsKeys(locale: Locale, strings: List<String>) {
+        val collation = LocalizedCollation(locale)
+        val collator = Collator.getInstance(locale)
+        for (str1 in strings) {
+            for (str2 in strings) {
+                val expected = collator.getCollationKey(str1).compareTo(collator.getCollationKey(str2)).sign
+                assertEquals("$locale: '$str1' vs '$str2'", expected, collation.xCompare(str1, str2).sign)
+            }
+        }
+    }
+}
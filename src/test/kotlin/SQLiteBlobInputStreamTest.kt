@@ -0,0 +1,92 @@
+import android.database.sqlite.SQLiteBlobInputStream
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertThrows
+import org.junit.Before
+import org.junit.Test
+import java.io.IOException
+import java.nio.ByteBuffer
+
+class SQLiteBlobInputStreamTest : SQLiteTest() {
+
+    @Before
+    fun createTable() {
+        db.execSQL("CREATE TABLE b (id INTEGER PRIMARY KEY, data)")
+    }
+
+    @Test
+    fun `should stream a value that is an exact multiple of the chunk size`() {
+        val bytes = ByteArray(12) { it.toByte() }
+        put(bytes)
+
+        val stream = open(4)!!
+        assertEquals(12L, stream.length())
+        assertArrayEquals(bytes, stream.readBytes())
+        assertEquals(-1, stream.read())
+    }
+
+    @Test
+    fun `should skip across chunks`() {
+        put(ByteArray(10) { it.toByte() })
+
+        val stream = open(4)!!
+        assertEquals(0, stream.read())
+        assertEquals(5L, stream.skip(5))
+        assertEquals(6, stream.read())
+        assertEquals(3L, stream.skip(100))
+        assertEquals(-1, stream.read())
+    }
+
+    @Test
+    fun `should read into a byte buffer across chunks`() {
+        put(ByteArray(10) { it.toByte() })
+
+        val stream = open(4)!!
+        val buffer = ByteBuffer.allocate(7)
+        assertEquals(7, stream.read(buffer))
+        assertArrayEquals(ByteArray(7) { it.toByte() }, buffer.array())
+        buffer.clear()
+        assertEquals(3, stream.read(buffer))
+        assertArrayEquals(byteArrayOf(7, 8, 9), buffer.array().copyOf(3))
+        buffer.clear()
+        assertEquals(-1, stream.read(buffer))
+    }
+
+    @Test
+    fun `should stream text as its UTF-8 bytes`() {
+        put("héllo wörld")
+
+        assertArrayEquals("héllo wörld".toByteArray(), open(3)!!.readBytes())
+    }
+
+    @Test
+    fun `should return null for a null value`() {
+        put(null)
+
+        assertNull(open(4))
+    }
+
+    @Test
+    fun `should fail when the value gets shorter while it is streamed`() {
+        put(ByteArray(8) { it.toByte() })
+
+        val stream = open(4)!!
+        assertEquals(4, stream.read(ByteArray(4)))
+        db.execSQL("UPDATE b SET data = ? WHERE id = 1", arrayOf<Any?>(byteArrayOf(1, 2)))
+        assertThrows(IOException::class.java) { stream.read() }
+    }
+
+    private fun put(value: Any?) {
+        db.execSQL("INSERT INTO b (id, data) VALUES (1, ?)", arrayOf(value))
+    }
+
+    private fun open(chunkSize: Int): SQLiteBlobInputStream? {
+        val statement = db.compileStatement("SELECT data FROM b WHERE id = 1")
+        try {
+            return statement.simpleQueryForBlobStream(chunkSize)
+        } finally {
+            statement.close()
+        }
+    }
+}
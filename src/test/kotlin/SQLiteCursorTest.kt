@@ -0,0 +1,87 @@
+import android.database.CursorWindow
+import android.database.sqlite.SQLiteBlobTooBigException
+import android.database.sqlite.SQLiteCursor
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertThrows
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+
+class SQLiteCursorTest : SQLiteTest() {
+
+    @Before
+    fun createTable() {
+        db.execSQL("CREATE TABLE t (id INTEGER PRIMARY KEY, data)")
+    }
+
+    @Test
+    fun `should page through the rows one window at a time`() {
+        insertRows(ROWS)
+        val cursor = query()
+        try {
+            var rows = 0
+            while (cursor.moveToNext()) {
+                assertEquals(rows + 1, cursor.getInt(0))
+                assertEquals("row ${rows + 1}", cursor.getString(1))
+                rows++
+            }
+
+            assertEquals(ROWS, rows)
+            assertTrue(cursor.window.startPosition > 0)
+            assertEquals(ROWS, cursor.count)
+            assertTrue(cursor.isAfterLast)
+        } finally {
+            cursor.close()
+        }
+    }
+
+    @Test
+    fun `should move to the last row before the rows are counted`() {
+        insertRows(ROWS)
+        val cursor = query()
+        try {
+            assertTrue(cursor.moveToLast())
+            assertEquals(ROWS, cursor.getInt(0))
+            assertEquals(ROWS, cursor.count)
+            assertTrue(cursor.moveToFirst())
+            assertEquals(1, cursor.getInt(0))
+            assertFalse(cursor.moveToPosition(ROWS))
+        } finally {
+            cursor.close()
+        }
+    }
+
+    @Test
+    fun `should throw when a row does not fit in the window`() {
+        db.execSQL("INSERT INTO t (id, data) VALUES (1, ?)", arrayOf<Any?>(ByteArray(WINDOW_SIZE * 4)))
+        val cursor = query()
+        try {
+            assertThrows(SQLiteBlobTooBigException::class.java) { cursor.moveToFirst() }
+        } finally {
+            cursor.close()
+        }
+    }
+
+    private fun insertRows(count: Int) {
+        db.beginTransaction()
+        try {
+            for (id in 1..count) {
+                db.execSQL("INSERT INTO t (id, data) VALUES (?, ?)", arrayOf<Any?>(id, "row $id"))
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    // A window that only holds a few rows, so the cursor has to page through the results.
+    private fun query() = (db.rawQuery("SELECT id, data FROM t ORDER BY id", null) as SQLiteCursor).apply {
+        setWindow(CursorWindow("test", WINDOW_SIZE.toLong()))
+    }
+
+    companion object {
+        private const val ROWS = 200
+        private const val WINDOW_SIZE = 1024
+    }
+}
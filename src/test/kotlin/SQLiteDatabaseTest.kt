@@ -0,0 +1,111 @@
+import android.database.sqlite.SQLiteConstraintException
+import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteGlobal
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertThrows
+import org.junit.Before
+import org.junit.Test
+
+class SQLiteDatabaseTest : SQLiteTest() {
+
+    @Before
+    fun createTable() {
+        db.execSQL("CREATE TABLE t (id INTEGER PRIMARY KEY, name TEXT UNIQUE)")
+    }
+
+    @Test
+    fun `should return the row ID of each inserted row`() {
+        val ids = db.insertBatch("t", arrayOf("name"), rows("a", "b", "c"), SQLiteDatabase.CONFLICT_NONE)
+
+        assertArrayEquals(longArrayOf(1, 2, 3), ids)
+        assertEquals(listOf("a", "b", "c"), names())
+    }
+
+    @Test
+    fun `should return the change count of each update`() {
+        db.insertBatch("t", arrayOf("name"), rows("a", "b"), SQLiteDatabase.CONFLICT_NONE)
+
+        val counts = db.updateBatch(
+            "t",
+            arrayOf("name"),
+            "id = ?",
+            arrayOf(arrayOf<Any?>("x", 1), arrayOf<Any?>("y", 99), arrayOf<Any?>("z", 2)),
+            SQLiteDatabase.CONFLICT_NONE
+        )
+
+        assertArrayEquals(longArrayOf(1, 0, 1), counts)
+        assertEquals(listOf("x", "z"), names())
+    }
+
+    @Test
+    fun `should roll back the whole batch when a row violates a constraint`() {
+        db.insertBatch("t", arrayOf("name"), rows("a"), SQLiteDatabase.CONFLICT_NONE)
+
+        assertThrows(SQLiteConstraintException::class.java) {
+            db.insertBatch("t", arrayOf("name"), rows("b", "a", "c"), SQLiteDatabase.CONFLICT_NONE)
+        }
+
+        assertEquals(listOf("a"), names())
+        assertEquals(false, db.inTransaction())
+    }
+
+    @Test
+    fun `should join the transaction of the caller`() {
+        db.beginTransaction()
+        try {
+            db.insertBatch("t", arrayOf("name"), rows("a", "b"), SQLiteDatabase.CONFLICT_NONE)
+            assertEquals(listOf("a", "b"), names())
+        } finally {
+            db.endTransaction()
+        }
+        assertEquals(emptyList<String>(), names())
+
+        db.beginTransaction()
+        try {
+            db.insertBatch("t", arrayOf("name"), rows("a", "b"), SQLiteDatabase.CONFLICT_NONE)
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+        assertEquals(listOf("a", "b"), names())
+    }
+
+    @Test
+    fun `should generate the SQL of each conflict algorithm`() {
+        db.insertBatch("t", arrayOf("name"), rows("a"), SQLiteDatabase.CONFLICT_NONE)
+
+        val ids = db.insertBatch("t", arrayOf("name"), rows("a", "b"), SQLiteDatabase.CONFLICT_IGNORE)
+        assertArrayEquals(longArrayOf(-1, 2), ids)
+
+        assertThrows(SQLiteConstraintException::class.java) {
+            db.insertBatch("t", arrayOf("name"), rows("a"), SQLiteDatabase.CONFLICT_NONE)
+        }
+        assertEquals(listOf("a", "b"), names())
+    }
+
+    @Test
+    fun `should trim connections last used for a query`() {
+        db.insertBatch("t", arrayOf("name"), rows("a"), SQLiteDatabase.CONFLICT_NONE)
+        assertEquals(listOf("a"), names())
+
+        SQLiteGlobal.releaseMemory()
+
+        assertEquals(emptyList<String>(), platform.logs.filter { "Failed to trim" in it })
+        assertEquals(listOf("a"), names())
+    }
+
+    private fun rows(vararg names: String): Array<Array<Any?>> = names.map { arrayOf<Any?>(it) }.toTypedArray()
+
+    private fun names(): List<String> {
+        val cursor = db.rawQuery("SELECT name FROM t ORDER BY id", null)
+        try {
+            return List(cursor.count) {
+                cursor.moveToPosition(it)
+                cursor.getString(0)
+            }
+        } finally {
+            cursor.close()
+        }
+    }
+}
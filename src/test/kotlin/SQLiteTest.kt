@@ -0,0 +1,26 @@
+import android.database.sqlite.SQLiteDatabase
+import com.google.firebase.FirebasePlatform
+import fakes.FakeFirebasePlatform
+import org.junit.After
+import org.junit.Before
+
+/**
+ * Opens an in-memory database for each test, subclasses create their tables in their own [Before].
+ */
+abstract class SQLiteTest {
+
+    protected val platform = FakeFirebasePlatform()
+
+    protected lateinit var db: SQLiteDatabase
+
+    @Before
+    fun openDatabase() {
+        FirebasePlatform.initializeFirebasePlatform(platform)
+        db = SQLiteDatabase.create(null)
+    }
+
+    @After
+    fun closeDatabase() {
+        db.close()
+    }
+}
@@ -0,0 +1,87 @@
+import android.content.Context
+import com.google.firebase.FirebasePlatform
+import fakes.FakeFirebasePlatform
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+
+class SharedPreferencesTest {
+
+    private val platform = FakeFirebasePlatform()
+
+    @Before
+    fun initialize() {
+        FirebasePlatform.initializeFirebasePlatform(platform)
+    }
+
+    @Test
+    fun `should persist edits only once they are committed`() {
+        val preferences = Context().getSharedPreferences("test", 0)
+        val editor = preferences.edit().putLong("fire-global", 42).putString("last-used-date", "2024-01-01")
+
+        assertFalse(platform.storage.containsKey("fire-global"))
+        assertTrue(editor.commit())
+        assertEquals("42", platform.storage["fire-global"])
+        assertEquals("2024-01-01", platform.storage["last-used-date"])
+    }
+
+    @Test
+    fun `should read applied edits before they are persisted`() {
+        val preferences = Context().getSharedPreferences("test", 0)
+        preferences.edit().putString("last-used-date", "2024-02-02").apply()
+
+        assertEquals("2024-02-02", preferences.getString("last-used-date", null))
+        preferences.edit().putString("last-used-date", null).commit()
+        assertFalse(platform.storage.containsKey("last-used-date"))
+        assertEquals("default", preferences.getString("last-used-date", "default"))
+    }
+
+    @Test
+    fun `should return from a commit without changes`() {
+        val preferences = Context().getSharedPreferences("test", 0)
+
+        assertTrue(preferences.edit().commit())
+    }
+
+    @Test
+    fun `should keep a failed batch readable and retry it with the next write`() {
+        var failing = true
+        val storage = object : HashMap<String, String>() {
+            override fun put(key: String, value: String): String? {
+                if (failing) throw IllegalStateException("disk full")
+                return super.put(key, value)
+            }
+        }
+        FirebasePlatform.initializeFirebasePlatform(FakeFirebasePlatform(storage))
+        val preferences = Context().getSharedPreferences("test", 0)
+
+        assertFalse(preferences.edit().putString("last-used-date", "2024-03-03").commit())
+        assertEquals("2024-03-03", preferences.getString("last-used-date", null))
+
+        failing = false
+        assertTrue(preferences.edit().commit())
+        assertEquals("2024-03-03", storage["last-used-date"])
+    }
+
+    @Test
+    fun `should retry a failed batch without another write`() {
+        var failing = true
+        val storage = object : HashMap<String, String>() {
+            override fun put(key: String, value: String): String? {
+                if (failing) throw IllegalStateException("disk full")
+                return super.put(key, value)
+            }
+        }
+        FirebasePlatform.initializeFirebasePlatform(FakeFirebasePlatform(storage))
+        val preferences = Context().getSharedPreferences("test", 0)
+
+        assertFalse(preferences.edit().putString("last-used-date", "2024-04-04").commit())
+        failing = false
+
+        val deadline = System.currentTimeMillis() + 10_000
+        while (storage["last-used-date"] == null && System.currentTimeMillis() < deadline) Thread.sleep(50)
+        assertEquals("2024-04-04", storage["last-used-date"])
+    }
+}
@@ -2,10 +2,11 @@ package fakes
 
 import com.google.firebase.FirebasePlatform
 import java.io.File
+import java.util.Collections
 
 /**
  * Fake used to store firebase data during testing. The [storage] is made purposefully public to allow for direct
- * access and modification if needed.
+ * access and modification if needed, the [logs] to check what the SDK logged.
  */
 class FakeFirebasePlatform(
     val storage: MutableMap<String, String> = mutableMapOf(),
@@ -14,13 +15,18 @@ class FakeFirebasePlatform(
 
     private val databaseFolder = File(databaseFolderPath)
 
+    val logs: MutableList<String> = Collections.synchronizedList(mutableListOf())
+
     override fun store(key: String, value: String) { storage[key] = value }
 
     override fun retrieve(key: String) = storage[key]
 
     override fun clear(key: String) { storage.remove(key) }
 
-    override fun log(msg: String) = println(msg)
+    override fun log(msg: String) {
+        logs += msg
+        println(msg)
+    }
 
     override fun getDatabasePath(name: String) = File(databaseFolder, name)
 }